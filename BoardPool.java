@@ -0,0 +1,309 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BoardPool
+{
+    // Number of ready boards kept per kind of board, 0 disables the pool
+    private static final int TARGET_DEPTH = Integer.getInteger("minesweeper.pool.depth", 8);
+    private static final int GENERATOR_THREADS = Integer.getInteger("minesweeper.pool.threads", 1);
+    // Number of symmetries of a square board (rotations and reflections)
+    private static final int NUMBER_SYMMETRIES = 8;
+
+    /**
+     * Kind of board kept in the pool.
+     * @param gridSize The size of the grid.
+     * @param numberMines The number of mines.
+     * @param noGuess True for boards that can be cleared without guessing.
+     */
+    public record Key(short gridSize, int numberMines, boolean noGuess) {}
+
+    /**
+     * A ready board.
+     * @implNote The first move may land on any start cell, after applying a symmetry.
+     */
+    private static class Layout
+    {
+        private final boolean[] mines;
+        private final boolean[] startCells;
+
+        private Layout(boolean[] mines, boolean[] startCells)
+        {
+            this.mines = mines;
+            this.startCells = startCells;
+        }
+    }
+
+    /**
+     * The ready boards of one kind.
+     */
+    private static class Shelf
+    {
+        private final ConcurrentLinkedDeque<Layout> layouts = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+    }
+
+    private static final Map<Key, Shelf> shelves = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final ExecutorService generators = Executors.newFixedThreadPool(
+        Math.max(1, GENERATOR_THREADS), runnable ->
+        {
+            Thread thread = new Thread(runnable, "board-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Start keeping ready boards of a kind.
+     * @param key The kind of board.
+     */
+    public static void register(Key key)
+    {
+        refill(key, shelves.computeIfAbsent(key, k -> new Shelf()));
+    }
+
+    /**
+     * Take a ready board whose first move is safe.
+     * @param key The kind of board.
+     * @param x The x coordinate of the first move.
+     * @param y The y coordinate of the first move.
+     * @return The mines, cell (x, y) at index x * gridSize + y, or null if no ready board fits.
+     * @implNote The ready boards are rotated or reflected so the first move lands on one of
+     * their start cells, a no-guess board stays solvable as the solver is symmetric.
+     */
+    public static boolean[] take(Key key, int x, int y)
+    {
+        if(TARGET_DEPTH <= 0)
+        {
+            return null;
+        }
+        Shelf shelf = shelves.computeIfAbsent(key, k -> new Shelf());
+        int gridSize = key.gridSize();
+        for(Layout layout : shelf.layouts)
+        {
+            for(int symmetry = 0; symmetry < NUMBER_SYMMETRIES; symmetry++)
+            {
+                int start = inverseTransform(symmetry, gridSize, x, y);
+                if(layout.startCells[start] && shelf.layouts.removeFirstOccurrence(layout))
+                {
+                    shelf.size.decrementAndGet();
+                    hits.increment();
+                    refill(key, shelf);
+                    return transformMines(symmetry, gridSize, layout.mines);
+                }
+            }
+        }
+        misses.increment();
+        refill(key, shelf);
+        return null;
+    }
+
+    /**
+     * Get the pool metrics.
+     * @return The number of hits and misses.
+     */
+    public static String getStatistics()
+    {
+        return "hits: " + hits.sum() + ", misses: " + misses.sum();
+    }
+
+    /**
+     * Schedule the generation of the missing boards of a kind.
+     * @param key The kind of board.
+     * @param shelf The ready boards of this kind.
+     */
+    private static void refill(Key key, Shelf shelf)
+    {
+        if(shelf.size.get() >= TARGET_DEPTH || !shelf.refilling.compareAndSet(false, true))
+        {
+            return;
+        }
+        generators.execute(() ->
+        {
+            try
+            {
+                while(shelf.size.get() < TARGET_DEPTH)
+                {
+                    Layout layout = generateLayout(key);
+                    if(layout == null)
+                    {
+                        // Never pooled, a board needing a guess is only played as a fallback
+                        System.out.println("No no-guess board found for " + key + ", pool not refilled.");
+                        break;
+                    }
+                    shelf.layouts.addLast(layout);
+                    shelf.size.incrementAndGet();
+                }
+            }
+            finally
+            {
+                shelf.refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * Generate a ready board.
+     * @param key The kind of board.
+     * @return The board and its start cells, or null if no no-guess board was found.
+     * @implNote The first move of a no-guess board must open the same area as the
+     * move it was generated for, any other safe cell fits a classic board.
+     */
+    private static Layout generateLayout(Key key)
+    {
+        short gridSize = key.gridSize();
+        int startX = ThreadLocalRandom.current().nextInt(gridSize);
+        int startY = ThreadLocalRandom.current().nextInt(gridSize);
+        boolean[] mines = Grid.generateLayout(gridSize, key.numberMines(), startX, startY, key.noGuess());
+        if(mines == null)
+        {
+            return null;
+        }
+        boolean[] startCells = new boolean[mines.length];
+        if(!key.noGuess())
+        {
+            for(int cell = 0; cell < mines.length; cell++)
+            {
+                startCells[cell] = !mines[cell];
+            }
+            return new Layout(mines, startCells);
+        }
+
+        // The empty cells of the opening all reveal the same opening
+        int start = startX * gridSize + startY;
+        startCells[start] = true;
+        if(countAdjacentMines(mines, gridSize, start) != 0)
+        {
+            return new Layout(mines, startCells);
+        }
+        boolean[] opened = new boolean[mines.length];
+        int[] pending = new int[mines.length];
+        int numberPending = 0;
+        opened[start] = true;
+        pending[numberPending++] = start;
+        while(numberPending > 0)
+        {
+            int cell = pending[--numberPending];
+            startCells[cell] = true;
+            int cellX = cell / gridSize;
+            int cellY = cell % gridSize;
+            for(int i = Math.max(0, cellX - 1); i <= Math.min(gridSize - 1, cellX + 1); i++)
+            {
+                for(int j = Math.max(0, cellY - 1); j <= Math.min(gridSize - 1, cellY + 1); j++)
+                {
+                    int neighbour = i * gridSize + j;
+                    if(!opened[neighbour] && countAdjacentMines(mines, gridSize, neighbour) == 0)
+                    {
+                        opened[neighbour] = true;
+                        pending[numberPending++] = neighbour;
+                    }
+                }
+            }
+        }
+        return new Layout(mines, startCells);
+    }
+
+    /**
+     * Get the number of mines on a cell and its neighbours.
+     * @param mines The mines of the grid.
+     * @param gridSize The size of the grid.
+     * @param cell The cell.
+     * @return The number of mines.
+     */
+    private static int countAdjacentMines(boolean[] mines, int gridSize, int cell)
+    {
+        int numMines = 0;
+        int x = cell / gridSize;
+        int y = cell % gridSize;
+        for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+        {
+            for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+            {
+                if(mines[i * gridSize + j])
+                {
+                    numMines++;
+                }
+            }
+        }
+        return numMines;
+    }
+
+    /**
+     * Apply a symmetry of the square to a cell.
+     * @param symmetry The symmetry: bit 0 transposes, bit 1 flips the rows, bit 2 flips the columns.
+     * @param gridSize The size of the grid.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The index of the image of the cell.
+     */
+    private static int transform(int symmetry, int gridSize, int x, int y)
+    {
+        if((symmetry & 1) != 0)
+        {
+            int swap = x;
+            x = y;
+            y = swap;
+        }
+        if((symmetry & 2) != 0)
+        {
+            x = gridSize - 1 - x;
+        }
+        if((symmetry & 4) != 0)
+        {
+            y = gridSize - 1 - y;
+        }
+        return x * gridSize + y;
+    }
+
+    /**
+     * Apply the inverse of a symmetry of the square to a cell.
+     * @param symmetry The symmetry, see transform.
+     * @param gridSize The size of the grid.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The index of the antecedent of the cell.
+     */
+    private static int inverseTransform(int symmetry, int gridSize, int x, int y)
+    {
+        if((symmetry & 4) != 0)
+        {
+            y = gridSize - 1 - y;
+        }
+        if((symmetry & 2) != 0)
+        {
+            x = gridSize - 1 - x;
+        }
+        if((symmetry & 1) != 0)
+        {
+            int swap = x;
+            x = y;
+            y = swap;
+        }
+        return x * gridSize + y;
+    }
+
+    /**
+     * Apply a symmetry of the square to mines.
+     * @param symmetry The symmetry, see transform.
+     * @param gridSize The size of the grid.
+     * @param mines The mines.
+     * @return The transformed mines.
+     */
+    private static boolean[] transformMines(int symmetry, int gridSize, boolean[] mines)
+    {
+        boolean[] transformed = new boolean[mines.length];
+        for(int cell = 0; cell < mines.length; cell++)
+        {
+            transformed[transform(symmetry, gridSize, cell / gridSize, cell % gridSize)] = mines[cell];
+        }
+        return transformed;
+    }
+}
@@ -0,0 +1,354 @@
+public class BoardSolver
+{
+    private static final byte UNKNOWN = 0;
+    private static final byte SAFE = 1;
+    private static final byte MINE = 2;
+
+    private final int gridSize;
+    private final byte[] counts;
+    private final byte[] states;
+    // Revealed cells whose neighbourhood changed since they were last checked
+    private final int[] dirty;
+    private final boolean[] isDirty;
+    // Cells left to reveal by the current flood fill
+    private final int[] pending;
+    private final int[] neighbourUnknowns = new int[8];
+    // Scratch of the subset rule, reused by every pass
+    private final int[] unknownsA = new int[8];
+    private final int[] unknownsB = new int[8];
+    private final int[] difference = new int[8];
+    private int numberDirty = 0;
+    private int numberUnknown;
+    private int numberSafeLeft;
+    private int numberMinesLeft;
+
+    /**
+     * Constructor for the BoardSolver class.
+     * @param gridSize The size of the grid.
+     * @param mines The mines of the grid, cell (x, y) at index x * gridSize + y.
+     */
+    private BoardSolver(int gridSize, boolean[] mines)
+    {
+        this.gridSize = gridSize;
+        int numberCells = gridSize * gridSize;
+        counts = new byte[numberCells];
+        states = new byte[numberCells];
+        dirty = new int[numberCells];
+        isDirty = new boolean[numberCells];
+        pending = new int[numberCells];
+        numberUnknown = numberCells;
+        for(int cell = 0; cell < numberCells; cell++)
+        {
+            if(mines[cell])
+            {
+                numberMinesLeft++;
+                continue;
+            }
+            int x = cell / gridSize;
+            int y = cell % gridSize;
+            for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+            {
+                for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+                {
+                    if(mines[i * gridSize + j])
+                    {
+                        counts[cell]++;
+                    }
+                }
+            }
+        }
+        numberSafeLeft = numberCells - numberMinesLeft;
+    }
+
+    /**
+     * Can the grid be cleared from a first move without guessing?
+     * @param gridSize The size of the grid.
+     * @param mines The mines of the grid, cell (x, y) at index x * gridSize + y.
+     * @param startX The x coordinate of the first move.
+     * @param startY The y coordinate of the first move.
+     * @return True if every safe cell can be deduced, false otherwise.
+     * @implNote Only sound deductions are made: the neighbourhood rules of each
+     * revealed cell, the subset rule between close revealed cells and the mine count.
+     */
+    public static boolean isSolvable(int gridSize, boolean[] mines, int startX, int startY)
+    {
+        BoardSolver solver = new BoardSolver(gridSize, mines);
+        int start = startX * gridSize + startY;
+        if(mines[start])
+        {
+            return false;
+        }
+        solver.reveal(start);
+        return solver.solve();
+    }
+
+    /**
+     * Propagate the constraints until the grid is cleared or no deduction is left.
+     * @return True if the grid is cleared, false otherwise.
+     */
+    private boolean solve()
+    {
+        while(true)
+        {
+            while(numberDirty > 0)
+            {
+                int cell = dirty[--numberDirty];
+                isDirty[cell] = false;
+                applyNeighbourhoodRule(cell);
+            }
+            if(numberSafeLeft == 0)
+            {
+                return true;
+            }
+            if(!applySubsetRule() && !applyMineCountRule())
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reveal a safe cell, and its neighbours if it has no adjacent mine.
+     * @param start The cell to reveal.
+     */
+    private void reveal(int start)
+    {
+        if(states[start] != UNKNOWN)
+        {
+            return;
+        }
+        int numberPending = 0;
+        setState(start, SAFE);
+        numberSafeLeft--;
+        pending[numberPending++] = start;
+        while(numberPending > 0)
+        {
+            int cell = pending[--numberPending];
+            if(counts[cell] != 0)
+            {
+                continue;
+            }
+            int x = cell / gridSize;
+            int y = cell % gridSize;
+            for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+            {
+                for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+                {
+                    int neighbour = i * gridSize + j;
+                    if(states[neighbour] == UNKNOWN)
+                    {
+                        setState(neighbour, SAFE);
+                        numberSafeLeft--;
+                        pending[numberPending++] = neighbour;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark a cell as a mine.
+     * @param cell The cell.
+     */
+    private void markMine(int cell)
+    {
+        if(states[cell] != UNKNOWN)
+        {
+            return;
+        }
+        setState(cell, MINE);
+        numberMinesLeft--;
+    }
+
+    /**
+     * Change the state of an unknown cell and schedule its revealed neighbours.
+     * @param cell The cell.
+     * @param state The new state.
+     */
+    private void setState(int cell, byte state)
+    {
+        states[cell] = state;
+        numberUnknown--;
+        int x = cell / gridSize;
+        int y = cell % gridSize;
+        for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+        {
+            for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+            {
+                int neighbour = i * gridSize + j;
+                if(states[neighbour] == SAFE && !isDirty[neighbour])
+                {
+                    isDirty[neighbour] = true;
+                    dirty[numberDirty++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the unknown neighbours of a revealed cell.
+     * @param cell The revealed cell.
+     * @param unknowns The array receiving the unknown neighbours, at least 8 long.
+     * @return The number of unknown neighbours, and the number of mines left
+     * around the cell in the upper 16 bits.
+     */
+    private int collectUnknowns(int cell, int[] unknowns)
+    {
+        int numberUnknowns = 0;
+        int minesLeft = counts[cell];
+        int x = cell / gridSize;
+        int y = cell % gridSize;
+        for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+        {
+            for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+            {
+                int neighbour = i * gridSize + j;
+                if(states[neighbour] == UNKNOWN)
+                {
+                    unknowns[numberUnknowns++] = neighbour;
+                }
+                else if(states[neighbour] == MINE)
+                {
+                    minesLeft--;
+                }
+            }
+        }
+        return (minesLeft << 16) | numberUnknowns;
+    }
+
+    /**
+     * Apply the rules of a single revealed cell: all its unknown neighbours are
+     * safe if its mines are all found, all mines if they are as many as the mines left.
+     * @param cell The revealed cell.
+     */
+    private void applyNeighbourhoodRule(int cell)
+    {
+        int[] unknowns = neighbourUnknowns;
+        int collected = collectUnknowns(cell, unknowns);
+        int numberUnknowns = collected & 0xFFFF;
+        int minesLeft = collected >> 16;
+        if(numberUnknowns == 0)
+        {
+            return;
+        }
+        for(int k = 0; k < numberUnknowns; k++)
+        {
+            if(minesLeft == 0)
+            {
+                reveal(unknowns[k]);
+            }
+            else if(minesLeft == numberUnknowns)
+            {
+                markMine(unknowns[k]);
+            }
+        }
+    }
+
+    /**
+     * Apply the subset rule: if the unknown neighbours of a revealed cell A are all
+     * unknown neighbours of a close revealed cell B, the other unknown neighbours
+     * of B hold exactly the mines left around B minus the mines left around A.
+     * @return True if a deduction was made, false otherwise.
+     * @implNote Bounded to the pairs of cells at most two rows and columns apart.
+     */
+    private boolean applySubsetRule()
+    {
+        for(int a = 0; a < states.length; a++)
+        {
+            if(states[a] != SAFE)
+            {
+                continue;
+            }
+            int collectedA = collectUnknowns(a, unknownsA);
+            int numberA = collectedA & 0xFFFF;
+            if(numberA == 0)
+            {
+                continue;
+            }
+            int x = a / gridSize;
+            int y = a % gridSize;
+            for(int i = Math.max(0, x - 2); i <= Math.min(gridSize - 1, x + 2); i++)
+            {
+                for(int j = Math.max(0, y - 2); j <= Math.min(gridSize - 1, y + 2); j++)
+                {
+                    int b = i * gridSize + j;
+                    if(b == a || states[b] != SAFE)
+                    {
+                        continue;
+                    }
+                    int collectedB = collectUnknowns(b, unknownsB);
+                    int numberB = collectedB & 0xFFFF;
+                    // Difference B \ A, empty unless A is a strict subset of B
+                    int numberDifference = 0;
+                    int numberShared = 0;
+                    for(int k = 0; k < numberB; k++)
+                    {
+                        boolean shared = false;
+                        for(int l = 0; l < numberA; l++)
+                        {
+                            shared |= unknownsA[l] == unknownsB[k];
+                        }
+                        if(shared)
+                        {
+                            numberShared++;
+                        }
+                        else
+                        {
+                            difference[numberDifference++] = unknownsB[k];
+                        }
+                    }
+                    if(numberShared != numberA || numberDifference == 0)
+                    {
+                        continue;
+                    }
+                    int minesInDifference = (collectedB >> 16) - (collectedA >> 16);
+                    if(minesInDifference == 0 || minesInDifference == numberDifference)
+                    {
+                        for(int k = 0; k < numberDifference; k++)
+                        {
+                            if(minesInDifference == 0)
+                            {
+                                reveal(difference[k]);
+                            }
+                            else
+                            {
+                                markMine(difference[k]);
+                            }
+                        }
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the mine count rule: the unknown cells are all safe if every mine is
+     * found, all mines if they are as many as the mines left.
+     * @return True if a deduction was made, false otherwise.
+     */
+    private boolean applyMineCountRule()
+    {
+        if(numberUnknown == 0 || (numberMinesLeft != 0 && numberMinesLeft != numberUnknown))
+        {
+            return false;
+        }
+        for(int cell = 0; cell < states.length; cell++)
+        {
+            if(states[cell] != UNKNOWN)
+            {
+                continue;
+            }
+            if(numberMinesLeft == 0)
+            {
+                reveal(cell);
+            }
+            else
+            {
+                markMine(cell);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BroadcastChannel
+{
+    // Number of frames a subscriber may lag behind before it is dropped
+    private static final int QUEUE_CAPACITY = Integer.getInteger("minesweeper.broadcast.queue", 16);
+    private static final int NUMBER_WRITERS = Integer.getInteger("minesweeper.broadcast.threads", 2);
+    // Time a write may block before its subscriber is dropped, in milliseconds
+    private static final long WRITE_TIMEOUT = Long.getLong("minesweeper.broadcast.timeout", 5000);
+    // Time between two pings of the subscribers, in milliseconds
+    private static final long PING_INTERVAL = Long.getLong("minesweeper.broadcast.ping", 30000);
+    // Close frame without status code
+    private static final byte[] CLOSE_FRAME = { (byte)0x88, 0 };
+    // Ping frame without payload, a closed client fails the write of the next frame
+    private static final byte[] PING_FRAME = { (byte)0x89, 0 };
+    // Writes the queued frames of all the channels, the publisher never touches a socket
+    private static final ExecutorService writers = Executors.newFixedThreadPool(NUMBER_WRITERS, runnable ->
+    {
+        Thread thread = new Thread(runnable, "broadcast");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Subscribers a writer is draining, checked by the watchdog
+    private static final Set<Subscriber> writing = ConcurrentHashMap.newKeySet();
+    // Subscribers of all the channels, pinged by the watchdog
+    private static final Set<Subscriber> subscribed = ConcurrentHashMap.newKeySet();
+    static
+    {
+        Thread watchdog = new Thread(() ->
+        {
+            // Only used by the watchdog, to discard what the subscribers send
+            byte[] discarded = new byte[256];
+            long lastPing = System.currentTimeMillis();
+            while(true)
+            {
+                try
+                {
+                    Thread.sleep(Math.max(1, WRITE_TIMEOUT / 2));
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for(Subscriber subscriber : writing)
+                {
+                    if(now - subscriber.lastProgress > WRITE_TIMEOUT)
+                    {
+                        subscriber.drop("stalled");
+                    }
+                }
+                if(now - lastPing >= PING_INTERVAL)
+                {
+                    lastPing = now;
+                    for(Subscriber subscriber : subscribed)
+                    {
+                        subscriber.ping(discarded);
+                    }
+                }
+            }
+        }, "broadcast-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private final SessionId token;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // State of the channel, the first frame sent to a new subscriber
+    private byte[] lastFrame;
+    private boolean closed = false;
+    private final LongAdder numberPublished = new LongAdder();
+    private final LongAdder numberDropped = new LongAdder();
+
+    /**
+     * A socket receiving the frames of the channel, with the frames not written yet.
+     */
+    private class Subscriber implements Runnable
+    {
+        private final Socket socket;
+        private final OutputStream output;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        // True while a writer is draining the queue, so a subscriber has at most one
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Time the last write returned, or the drain started, in milliseconds
+        private volatile long lastProgress;
+
+        private Subscriber(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Queue a frame, or drop the subscriber if it is too far behind.
+         * @param frame The frame.
+         */
+        private void offer(byte[] frame)
+        {
+            if(!queue.offer(frame))
+            {
+                drop("too slow");
+                return;
+            }
+            if(scheduled.compareAndSet(false, true))
+            {
+                writers.execute(this);
+            }
+        }
+
+        /**
+         * Write the queued frames.
+         * @implNote A write blocked for longer than WRITE_TIMEOUT is ended by the watchdog,
+         * which closes the socket, so a client that stops reading cannot hold a writer.
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                do
+                {
+                    lastProgress = System.currentTimeMillis();
+                    writing.add(this);
+                    byte[] frame;
+                    while((frame = queue.poll()) != null)
+                    {
+                        output.write(frame);
+                        lastProgress = System.currentTimeMillis();
+                        if(frame == CLOSE_FRAME)
+                        {
+                            output.flush();
+                            writing.remove(this);
+                            disconnect();
+                            return;
+                        }
+                    }
+                    output.flush();
+                    // Before the flag is cleared, another writer may take the subscriber right after
+                    writing.remove(this);
+                    scheduled.set(false);
+                }
+                // A frame queued after the last poll but before the flag was cleared
+                while(!queue.isEmpty() && scheduled.compareAndSet(false, true));
+            }
+            catch(IOException e)
+            {
+                writing.remove(this);
+                disconnect();
+            }
+        }
+
+        /**
+         * Ping the subscriber, so that a closed client is dropped even while nothing is published.
+         * @param discarded A buffer for what the client sent, pongs and close frames, never read.
+         * @implNote The client is not waited for: a closed client resets the connection, and
+         * the write of the next ping fails. The pongs are discarded so they never fill the socket.
+         */
+        private void ping(byte[] discarded)
+        {
+            try
+            {
+                InputStream input = socket.getInputStream();
+                int available;
+                while((available = input.available()) > 0)
+                {
+                    input.read(discarded, 0, Math.min(available, discarded.length));
+                }
+            }
+            catch(IOException e)
+            {
+                disconnect();
+                return;
+            }
+            offer(PING_FRAME);
+        }
+
+        /**
+         * Drop the subscriber, counted and logged.
+         * @param reason Why it is dropped, for the logs.
+         */
+        private void drop(String reason)
+        {
+            numberDropped.increment();
+            System.out.println("Subscriber " + socket.getPort() + " " + reason + ", dropped.");
+            disconnect();
+        }
+
+        /**
+         * Remove the subscriber and close its socket, a blocked write fails right away.
+         */
+        private void disconnect()
+        {
+            subscribers.remove(this);
+            subscribed.remove(this);
+            try
+            {
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Constructor for the BroadcastChannel class.
+     * @param token The token the subscribers give to join the channel, or null if none is needed.
+     */
+    public BroadcastChannel(SessionId token)
+    {
+        this.token = token;
+    }
+
+    /**
+     * Get the token of the channel.
+     * @return The token.
+     */
+    public SessionId getToken()
+    {
+        return token;
+    }
+
+    /**
+     * Send a message to every subscriber.
+     * @param message The message, framed once for all the subscribers.
+     * @implNote The publisher only queues the frame, the sockets are written by the broadcast threads.
+     */
+    public synchronized void publish(ByteBuffer message)
+    {
+        publishFrame(WebSocket.frame(message), null);
+    }
+
+    /**
+     * Send a change framed beforehand to every subscriber, the new subscribers get the whole state instead.
+     * @param frame The frame of the change.
+     * @param stateFrame The frame sent first to a new subscriber, or null if it is the change itself.
+     */
+    public synchronized void publishFrame(byte[] frame, byte[] stateFrame)
+    {
+        if(closed)
+        {
+            return;
+        }
+        lastFrame = stateFrame != null ? stateFrame : frame;
+        numberPublished.increment();
+        for(Subscriber subscriber : subscribers)
+        {
+            subscriber.offer(frame);
+        }
+    }
+
+    /**
+     * Add a subscriber to the channel.
+     * @param socket The socket of the subscriber, after the WebSocket handshake.
+     * @param greeting The frames sent before the state of the channel.
+     * @return False if the channel is closed.
+     * @throws IOException If an I/O error occurs.
+     */
+    public synchronized boolean subscribe(Socket socket, List<byte[]> greeting) throws IOException
+    {
+        if(closed)
+        {
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(socket);
+        subscribers.add(subscriber);
+        subscribed.add(subscriber);
+        for(byte[] frame : greeting)
+        {
+            subscriber.offer(frame);
+        }
+        if(lastFrame != null)
+        {
+            subscriber.offer(lastFrame);
+        }
+        return true;
+    }
+
+    /**
+     * Close the channel, the subscribers still receive the frames already published.
+     */
+    public synchronized void close()
+    {
+        if(closed)
+        {
+            return;
+        }
+        closed = true;
+        for(Subscriber subscriber : subscribers)
+        {
+            subscriber.offer(CLOSE_FRAME);
+        }
+    }
+
+    /**
+     * Get the channel counters.
+     * @return The number of subscribers, published frames and dropped subscribers.
+     */
+    public String getStatistics()
+    {
+        return "subscribers: " + subscribers.size() + ", published: " + numberPublished.sum()
+            + ", dropped: " + numberDropped.sum();
+    }
+}
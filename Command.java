@@ -0,0 +1,328 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A command of a client, parsed from the bytes of its message and reused for the next one.
+ * @implNote Single pass and no allocation: "KEYWORD argument ...", separated by spaces, the
+ * trailing line ending ignored.
+ */
+public class Command
+{
+    /**
+     * The commands, with their number of arguments.
+     */
+    public enum Type
+    {
+        TRY(2), FLAG(2), CHORD(2), VIEW(4), MODE(1), CHEAT(0), SPECTATE(0), QUIT(0);
+
+        private final byte[] keyword = name().getBytes(StandardCharsets.US_ASCII);
+        private final int numberArguments;
+
+        Type(int numberArguments)
+        {
+            this.numberArguments = numberArguments;
+        }
+    }
+
+    /**
+     * Why a command was rejected, the code is the one sent to the client.
+     */
+    public enum ErrorCode
+    {
+        NONE(0),
+        // Parsing
+        UNKNOWN_COMMAND(1), WRONG_ARGUMENT_COUNT(2), NOT_A_NUMBER(3), NUMBER_TOO_LARGE(4), UNKNOWN_MODE(5),
+        // The command does not apply to the session
+        OUT_OF_RANGE(6), INVALID_VIEW(7), MODE_LOCKED(8);
+
+        private final int code;
+
+        ErrorCode(int code)
+        {
+            this.code = code;
+        }
+
+        /**
+         * Get the code of the error.
+         * @return The code, 0 for no error.
+         */
+        public int getCode()
+        {
+            return code;
+        }
+    }
+
+    private static final int MAX_ARGUMENTS = 4;
+    // At most 9 digits so that a number always fits in an int
+    private static final int MAX_DIGITS = 9;
+    private static final SessionInfo.Mode[] MODES = SessionInfo.Mode.values();
+    private static final byte[][] MODE_NAMES = new byte[MODES.length][];
+    static
+    {
+        for(int i = 0; i < MODES.length; i++)
+        {
+            MODE_NAMES[i] = MODES[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private ByteBuffer input;
+    private Type type;
+    private ErrorCode error = ErrorCode.NONE;
+    private final int[] arguments = new int[MAX_ARGUMENTS];
+    private int numberArguments;
+    private SessionInfo.Mode mode;
+
+    /**
+     * Parse a message.
+     * @param message The message, from its position to its limit, kept until the next parse.
+     * @return True if the message is a valid command, otherwise see getError.
+     */
+    public boolean parse(ByteBuffer message)
+    {
+        input = message;
+        type = null;
+        error = ErrorCode.NONE;
+        numberArguments = 0;
+        mode = null;
+        int position = message.position();
+        int end = message.limit();
+        while(end > position && (message.get(end - 1) == '\n' || message.get(end - 1) == '\r'
+            || message.get(end - 1) == ' '))
+        {
+            end--;
+        }
+        int start = position;
+        while(position < end && message.get(position) != ' ')
+        {
+            position++;
+        }
+        type = parseType(message, start, position);
+        if(type == null)
+        {
+            return fail(ErrorCode.UNKNOWN_COMMAND);
+        }
+        while(position < end)
+        {
+            while(message.get(position) == ' ')
+            {
+                position++;
+            }
+            start = position;
+            while(position < end && message.get(position) != ' ')
+            {
+                position++;
+            }
+            if(numberArguments == type.numberArguments)
+            {
+                return fail(ErrorCode.WRONG_ARGUMENT_COUNT);
+            }
+            ErrorCode argumentError = type == Type.MODE ? parseMode(message, start, position)
+                : parseNumber(message, start, position);
+            if(argumentError != ErrorCode.NONE)
+            {
+                return fail(argumentError);
+            }
+        }
+        if(numberArguments != type.numberArguments)
+        {
+            return fail(ErrorCode.WRONG_ARGUMENT_COUNT);
+        }
+        return true;
+    }
+
+    /**
+     * Reject the command, e.g. when it does not apply to the session.
+     * @param error Why the command is rejected.
+     * @return False, to be returned by the caller.
+     */
+    public boolean fail(ErrorCode error)
+    {
+        this.error = error;
+        return false;
+    }
+
+    /**
+     * Get the type of the command.
+     * @return The type, or null if the keyword is unknown.
+     */
+    public Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * Get why the command was rejected.
+     * @return The error, NONE if the command is valid.
+     */
+    public ErrorCode getError()
+    {
+        return error;
+    }
+
+    /**
+     * Get the x coordinate of a move or of a window.
+     * @return The first argument.
+     */
+    public int getX()
+    {
+        return arguments[0];
+    }
+
+    /**
+     * Get the y coordinate of a move or of a window.
+     * @return The second argument.
+     */
+    public int getY()
+    {
+        return arguments[1];
+    }
+
+    /**
+     * Get a number argument.
+     * @param index The index of the argument, 0 for the first one.
+     * @return The argument.
+     */
+    public int getArgument(int index)
+    {
+        return arguments[index];
+    }
+
+    /**
+     * Get the mode of a MODE command.
+     * @return The mode.
+     */
+    public SessionInfo.Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Get the message of the command, for the logs and the error replies.
+     * @return The message as received.
+     */
+    public String getInput()
+    {
+        return input != null ? StandardCharsets.UTF_8.decode(input.duplicate()).toString() : "";
+    }
+
+    /**
+     * Find the command of a keyword.
+     * @param message The message.
+     * @param start The start of the keyword.
+     * @param end The end of the keyword.
+     * @return The type, or null if the keyword is unknown.
+     */
+    private static Type parseType(ByteBuffer message, int start, int end)
+    {
+        if(start == end)
+        {
+            return null;
+        }
+        Type candidate;
+        switch(message.get(start))
+        {
+            case 'T':
+                candidate = Type.TRY;
+                break;
+            case 'F':
+                candidate = Type.FLAG;
+                break;
+            case 'C':
+                candidate = end - start > 2 && message.get(start + 2) == 'O' ? Type.CHORD : Type.CHEAT;
+                break;
+            case 'V':
+                candidate = Type.VIEW;
+                break;
+            case 'M':
+                candidate = Type.MODE;
+                break;
+            case 'S':
+                candidate = Type.SPECTATE;
+                break;
+            case 'Q':
+                candidate = Type.QUIT;
+                break;
+            default:
+                return null;
+        }
+        return matches(message, start, end, candidate.keyword) ? candidate : null;
+    }
+
+    /**
+     * Parse the mode argument.
+     * @param message The message.
+     * @param start The start of the argument.
+     * @param end The end of the argument.
+     * @return NONE, or why the argument is invalid.
+     */
+    private ErrorCode parseMode(ByteBuffer message, int start, int end)
+    {
+        for(int i = 0; i < MODES.length; i++)
+        {
+            if(matches(message, start, end, MODE_NAMES[i]))
+            {
+                mode = MODES[i];
+                numberArguments++;
+                return ErrorCode.NONE;
+            }
+        }
+        return ErrorCode.UNKNOWN_MODE;
+    }
+
+    /**
+     * Parse a number argument, may be negative.
+     * @param message The message.
+     * @param start The start of the argument.
+     * @param end The end of the argument.
+     * @return NONE, or why the argument is invalid.
+     */
+    private ErrorCode parseNumber(ByteBuffer message, int start, int end)
+    {
+        boolean negative = message.get(start) == '-';
+        int digits = negative ? start + 1 : start;
+        if(digits == end)
+        {
+            return ErrorCode.NOT_A_NUMBER;
+        }
+        int value = 0;
+        for(int i = digits; i < end; i++)
+        {
+            int digit = message.get(i) - '0';
+            if(digit < 0 || digit > 9)
+            {
+                return ErrorCode.NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+        }
+        if(end - digits > MAX_DIGITS)
+        {
+            return ErrorCode.NUMBER_TOO_LARGE;
+        }
+        arguments[numberArguments++] = negative ? -value : value;
+        return ErrorCode.NONE;
+    }
+
+    /**
+     * Compare a token of the message with a keyword.
+     * @param message The message.
+     * @param start The start of the token.
+     * @param end The end of the token.
+     * @param keyword The keyword, in ASCII.
+     * @return True if the token is the keyword.
+     */
+    private static boolean matches(ByteBuffer message, int start, int end, byte[] keyword)
+    {
+        if(end - start != keyword.length)
+        {
+            return false;
+        }
+        for(int i = 0; i < keyword.length; i++)
+        {
+            if(message.get(start + i) != keyword[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * The invalid commands a connection may still send, a token bucket refilled over time.
+ * @implNote Only used by the thread of the connection.
+ */
+public class ErrorBudget
+{
+    private final int burst;
+    private final long refillMillis;
+    private int tokens;
+    private long lastRefill;
+
+    /**
+     * Constructor for the ErrorBudget class.
+     * @param burst The number of errors allowed in a row.
+     * @param refillMillis The time after which one more error is allowed, in milliseconds.
+     * @param now The current time, in milliseconds.
+     */
+    public ErrorBudget(int burst, long refillMillis, long now)
+    {
+        this.burst = burst;
+        this.refillMillis = refillMillis;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Count an error.
+     * @param now The current time, in milliseconds.
+     * @return False if the connection sent too many errors.
+     */
+    public boolean spend(long now)
+    {
+        long refilled = (now - lastRefill) / refillMillis;
+        if(refilled > 0)
+        {
+            tokens = (int)Math.min(burst, tokens + refilled);
+            lastRefill = tokens == burst ? now : lastRefill + refilled * refillMillis;
+        }
+        if(tokens == 0)
+        {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
@@ -1,16 +1,56 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
 public class Grid
 {
+    // Boards at least this wide compute their neighbour counts in parallel row bands
+    private static final int PARALLEL_THRESHOLD = 256;
+    private static final int BAND_HEIGHT = 64;
+    // Placements drawn before giving up on a board solvable without guessing
+    private static final int MAX_NO_GUESS_ATTEMPTS = 1000;
+
+    private static final byte[] LINE_END = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_WON = "GAME WON\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_LOST = "GAME LOST\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_NOT_STARTED = 
+        "GAME NOT STARTED\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Renderings of untouched boards, shared by the sessions that have not played yet
+    private static final Map<Short, byte[]> unrevealedRenders = new ConcurrentHashMap<>();
+
     private short gridSize = 7;
     private short numberMines = gridSize;
     private short numberTurnsPlayed = 0;
+    private boolean noGuess = false;
     private Coordinate[][] currentGrid;
 
+    // Protocol renderings of the board, patched in place whenever a cell changes
+    private byte[] visibleRender;
+    private byte[] revealedRender;
+    private int numberHidden;
+    private boolean mineRevealed = false;
+
     /**
      * Constructor for the Grid class.
      * @param gridSize The size of the grid.
      * @implNote The number of mines is equal to the size of the grid.
      */
     public Grid(short gridSize)
+    {
+        this(gridSize, false);
+    }
+
+    /**
+     * Constructor for the Grid class.
+     * @param gridSize The size of the grid.
+     * @param noGuess If true, the board can be cleared from the first move without guessing.
+     * @implNote The number of mines is equal to the size of the grid.
+     */
+    public Grid(short gridSize, boolean noGuess)
     {
         if(gridSize < 1)
         {
@@ -19,6 +59,7 @@ public class Grid
         }
         this.gridSize = gridSize;
         this.numberMines = gridSize;
+        this.noGuess = noGuess;
         numberTurnsPlayed = 0;
         createInitialBoard();
     }
@@ -47,25 +88,150 @@ public class Grid
             }
         }
         currentGrid = board;
+        numberHidden = gridSize * gridSize;
+
+        // Both renderings start as the untouched board,
+        // the revealed one keeps room for the longest game status line
+        byte[] unrevealedRender = getUnrevealedRender(gridSize);
+        visibleRender = unrevealedRender.clone();
+        revealedRender = new byte[unrevealedRender.length + GAME_LOST.length];
+        System.arraycopy(unrevealedRender, 0, revealedRender, 0, unrevealedRender.length);
+    }
+
+    /**
+     * Get the rendering of a board with all cells hidden.
+     * @param gridSize The size of the grid.
+     * @return The rows of unrevealed cells followed by the final empty line.
+     * @implNote The returned array is shared and must not be modified.
+     */
+    private static byte[] getUnrevealedRender(short gridSize)
+    {
+        return unrevealedRenders.computeIfAbsent(gridSize, size -> 
+        {
+            int rowLength = size + LINE_END.length;
+            byte[] render = new byte[size * rowLength + LINE_END.length];
+            for(int i = 0; i < size; i++)
+            {
+                for(int j = 0; j < size; j++)
+                {
+                    render[i * rowLength + j] = Coordinate.UNREVEALED;
+                }
+                System.arraycopy(LINE_END, 0, render, i * rowLength + size, LINE_END.length);
+            }
+            System.arraycopy(LINE_END, 0, render, size * rowLength, LINE_END.length);
+            return render;
+        });
+    }
+
+    /**
+     * Get a board with all cells hidden following the protocol.
+     * @param gridSize The size of the grid.
+     * @return The board following the protocol.
+     * @implNote Used for the sessions whose grid is not created yet.
+     */
+    public static ByteBuffer unrevealedProtocol(short gridSize)
+    {
+        return ByteBuffer.wrap(getUnrevealedRender(gridSize));
+    }
+
+    /**
+     * Get the reply to a CHEAT command before the first move.
+     * @return The game not started message following the protocol.
+     */
+    public static ByteBuffer notStartedProtocol()
+    {
+        return ByteBuffer.wrap(GAME_NOT_STARTED);
+    }
+
+    /**
+     * Get the offset of a cell in the protocol renderings.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The offset of the cell.
+     */
+    private int renderOffset(int x, int y)
+    {
+        return x * (gridSize + LINE_END.length) + y;
     }
 
     /**
      * Compute the final grid with the number of mines in the neighborhood of each cell.
-     * @implNote The final grid is computed after the first move.
+     * @implNote The final grid is computed after the first move. The counts are a
+     * separable 3x3 box sum over a primitive copy of the mines (horizontal pass, then
+     * vertical pass), split in row bands computed in parallel for large boards.
      */
     public void computeFinalGrid()
     {
-        for(int i = 0; i < gridSize; i++)
+        byte[][] mines = new byte[gridSize][gridSize];
+        byte[][] rowSums = new byte[gridSize][gridSize];
+        int bandHeight = gridSize >= PARALLEL_THRESHOLD ? BAND_HEIGHT : gridSize;
+        int numberBands = (gridSize + bandHeight - 1) / bandHeight;
+
+        // Horizontal pass: sum of each cell and its left/right neighbours
+        IntStream bands = IntStream.range(0, numberBands);
+        if(numberBands > 1)
         {
-            for(int j = 0; j < gridSize; j++)
+            bands = bands.parallel();
+        }
+        bands.forEach(band -> 
+        {
+            int end = Math.min(gridSize, (band + 1) * bandHeight);
+            for(int i = band * bandHeight; i < end; i++)
             {
-                if(currentGrid[i][j].getValue() != Coordinate.BOMB)
+                byte[] mineRow = mines[i];
+                for(int j = 0; j < gridSize; j++)
                 {
-                    currentGrid[i][j].setValue
-                        ((char)(getNumberOfAdjacentMines(i, j) + '0'));
+                    mineRow[j] = (byte)(currentGrid[i][j].getValue() == Coordinate.BOMB ? 1 : 0);
+                }
+                byte[] sumRow = rowSums[i];
+                int left = 0;
+                int center = mineRow[0];
+                for(int j = 0; j < gridSize; j++)
+                {
+                    int right = j + 1 < gridSize ? mineRow[j + 1] : 0;
+                    sumRow[j] = (byte)(left + center + right);
+                    left = center;
+                    center = right;
                 }
             }
+        });
+
+        // Vertical pass: sum of the row sums above, on and below each cell
+        bands = IntStream.range(0, numberBands);
+        if(numberBands > 1)
+        {
+            bands = bands.parallel();
         }
+        bands.forEach(band -> 
+        {
+            int end = Math.min(gridSize, (band + 1) * bandHeight);
+            for(int i = band * bandHeight; i < end; i++)
+            {
+                byte[] above = i > 0 ? rowSums[i - 1] : null;
+                byte[] below = i + 1 < gridSize ? rowSums[i + 1] : null;
+                byte[] sumRow = rowSums[i];
+                byte[] mineRow = mines[i];
+                for(int j = 0; j < gridSize; j++)
+                {
+                    if(mineRow[j] != 0)
+                    {
+                        revealedRender[renderOffset(i, j)] = Coordinate.BOMB;
+                        continue;
+                    }
+                    int count = sumRow[j];
+                    if(above != null)
+                    {
+                        count += above[j];
+                    }
+                    if(below != null)
+                    {
+                        count += below[j];
+                    }
+                    currentGrid[i][j].setValue((char)(count + '0'));
+                    revealedRender[renderOffset(i, j)] = (byte)(count + '0');
+                }
+            }
+        });
     }
 
     /**
@@ -85,11 +251,13 @@ public class Grid
         if(currentGrid[x][y].getStatus() == Coordinate.Status.FLAGGED)
         {
             currentGrid[x][y].setStatus(Coordinate.Status.UNREVEALED);
+            visibleRender[renderOffset(x, y)] = Coordinate.UNREVEALED;
         }
         // If the cell is unrevealed, flag it
         else if(currentGrid[x][y].getStatus() == Coordinate.Status.UNREVEALED)
         {
             currentGrid[x][y].setStatus(Coordinate.Status.FLAGGED);
+            visibleRender[renderOffset(x, y)] = Coordinate.FLAG;
         }
         // If the cell is revealed, do nothing
     }
@@ -121,7 +289,8 @@ public class Grid
         // If the cell is a bomb, game over
         else if(currentGrid[x][y].getValue() == Coordinate.BOMB)
         {
-            currentGrid[x][y].setStatus(Coordinate.Status.REVEALED);
+            markRevealed(x, y);
+            mineRevealed = true;
             return;
         }
         numberTurnsPlayed++;
@@ -129,6 +298,63 @@ public class Grid
         propagateReveal(x, y);
     }
 
+    /**
+     * Reveal the neighbours of a revealed number whose mines are all flagged.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @implNote Used for the CHORD command. All unflagged neighbours are revealed at once,
+     * a wrongly placed flag reveals a mine and loses the game.
+     */
+    public void chordCell(int x, int y)
+    {
+        if(x < 0 || x >= gridSize || y < 0 || y >= gridSize)
+        {
+            System.out.println("Invalid coordinates.");
+            return;
+        }
+        if(currentGrid[x][y].getStatus() != Coordinate.Status.REVEALED 
+            || currentGrid[x][y].getValue() == Coordinate.BOMB)
+        {
+            return;
+        }
+        // Count the flags around the cell
+        int numFlags = 0;
+        for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+        {
+            for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+            {
+                if(currentGrid[i][j].getStatus() == Coordinate.Status.FLAGGED)
+                {
+                    numFlags++;
+                }
+            }
+        }
+        if(numFlags != currentGrid[x][y].getValue() - '0')
+        {
+            return;
+        }
+        numberTurnsPlayed++;
+        for(int i = Math.max(0, x - 1); i <= Math.min(gridSize - 1, x + 1); i++)
+        {
+            for(int j = Math.max(0, y - 1); j <= Math.min(gridSize - 1, y + 1); j++)
+            {
+                if(currentGrid[i][j].getStatus() != Coordinate.Status.UNREVEALED)
+                {
+                    continue;
+                }
+                if(currentGrid[i][j].getValue() == Coordinate.BOMB)
+                {
+                    markRevealed(i, j);
+                    mineRevealed = true;
+                }
+                else
+                {
+                    propagateReveal(i, j);
+                }
+            }
+        }
+    }
+
     /**
      * Propagate the reveal operation to all adjacent cells.
      * @param x The x coordinate of the cell.
@@ -150,7 +376,7 @@ public class Grid
         {
             return;
         }
-        currentGrid[x][y].setStatus(Coordinate.Status.REVEALED);
+        markRevealed(x, y);
         // If the cell is empty, reveal all adjacent cells
         if(currentGrid[x][y].getValue() == '0')
         {
@@ -171,194 +397,405 @@ public class Grid
     }
 
     /**
-     * Convert the grid to a string.
+     * Mark a cell as revealed and patch the visible rendering.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     */
+    private void markRevealed(int x, int y)
+    {
+        if(currentGrid[x][y].getStatus() != Coordinate.Status.REVEALED)
+        {
+            numberHidden--;
+        }
+        currentGrid[x][y].setStatus(Coordinate.Status.REVEALED);
+        visibleRender[renderOffset(x, y)] = (byte)currentGrid[x][y].getValue();
+    }
+
+    /**
+     * Get the grid following the protocol.
      * @param forceReveal If true, reveal all cells. (CHEAT)
-     * @return The grid as a string.
+     * @return A view over the rendering of the grid, shared with the grid.
+     * @implNote No rendering is done here, the buffers are kept up to date as cells change.
      */
-    public String convertGridToProtocol(boolean forceReveal)
+    public ByteBuffer convertGridToProtocol(boolean forceReveal)
     {
-        // Check if the game is won or lost => force reveal
-        boolean isWin = isWin();
-        boolean isLose = isLose();
-        if(isWin || isLose)
+        // Check if the game is won or lost => force reveal with the game status
+        byte[] status = getGameStatus();
+        if(status == null && !forceReveal)
         {
-            forceReveal = true;
+            return ByteBuffer.wrap(visibleRender);
         }
 
-        // Convert the grid to a string
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < gridSize; i++)
+        int length = gridSize * (gridSize + LINE_END.length);
+        if(status != null)
         {
-            for(int j = 0; j < gridSize; j++)
-            {
-                // If we want to force reveal the grid, show all cells (CHEAT)
-                if(forceReveal)
-                {
-                    sb.append(currentGrid[i][j].getValue());
-                }
-                // If the cell is unrevealed, show the unrevealed character
-                else if(currentGrid[i][j].getStatus() == Coordinate.Status.UNREVEALED)
-                {
-                    sb.append(Coordinate.UNREVEALED);
-                }
-                // If the cell is revealed, show the value
-                else if(currentGrid[i][j].getStatus() == Coordinate.Status.REVEALED)
-                {
-                    sb.append(currentGrid[i][j].getValue());
-                }
-                // If the cell is flagged, show the flag character
-                else
-                {
-                    sb.append(Coordinate.FLAG);
-                }
-            }
-            sb.append("\r\n");
+            System.arraycopy(status, 0, revealedRender, length, status.length);
+            length += status.length;
+        }
+        System.arraycopy(LINE_END, 0, revealedRender, length, LINE_END.length);
+        length += LINE_END.length;
+        return ByteBuffer.wrap(revealedRender, 0, length);
+    }
+
+    /**
+     * Get a rectangular window of the grid following the protocol.
+     * @param x The x coordinate of the top left cell of the window.
+     * @param y The y coordinate of the top left cell of the window.
+     * @param width The number of columns of the window.
+     * @param height The number of rows of the window.
+     * @param forceReveal If true, reveal all cells of the window. (CHEAT)
+     * @return A "VIEW x y width height" line, the rows of the window and the game status.
+     * @implNote The window is clipped to the grid, the header gives the clipped window.
+     */
+    public ByteBuffer renderViewport(int x, int y, int width, int height, boolean forceReveal)
+    {
+        byte[] status = getGameStatus();
+        byte[] source = status != null || forceReveal ? revealedRender : visibleRender;
+        return renderWindow(source, gridSize, x, y, width, height, status);
+    }
+
+    /**
+     * Get a rectangular window of a grid with all cells hidden following the protocol.
+     * @param gridSize The size of the grid.
+     * @param x The x coordinate of the top left cell of the window.
+     * @param y The y coordinate of the top left cell of the window.
+     * @param width The number of columns of the window.
+     * @param height The number of rows of the window.
+     * @return The window following the protocol.
+     * @implNote Used for the sessions whose grid is not created yet.
+     */
+    public static ByteBuffer unrevealedViewport(short gridSize, int x, int y, int width, int height)
+    {
+        return renderWindow(getUnrevealedRender(gridSize), gridSize, x, y, width, height, null);
+    }
+
+    /**
+     * Copy a rectangular window of a rendering.
+     * @param source The rendering of the whole grid.
+     * @param gridSize The size of the grid.
+     * @param x The x coordinate of the top left cell of the window.
+     * @param y The y coordinate of the top left cell of the window.
+     * @param width The number of columns of the window.
+     * @param height The number of rows of the window.
+     * @param status The game status line, or null.
+     * @return The window following the protocol.
+     */
+    private static ByteBuffer renderWindow(byte[] source, short gridSize, 
+        int x, int y, int width, int height, byte[] status)
+    {
+        // Clip the window to the grid
+        int top = Math.max(0, x);
+        int left = Math.max(0, y);
+        int clippedHeight = Math.max(0, (int)Math.min(gridSize, (long)x + height) - top);
+        int clippedWidth = Math.max(0, (int)Math.min(gridSize, (long)y + width) - left);
+        // A window outside the grid on either axis is empty, no row is copied
+        if(clippedHeight == 0 || clippedWidth == 0)
+        {
+            clippedHeight = 0;
+            clippedWidth = 0;
         }
 
-        // Append the game status if game over
-        if(isWin)
+        byte[] header = ("VIEW " + top + " " + left + " " + clippedWidth + " " + clippedHeight + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+        int rowLength = gridSize + LINE_END.length;
+        byte[] render = new byte[header.length + clippedHeight * (clippedWidth + LINE_END.length)
+            + GAME_LOST.length + LINE_END.length];
+        System.arraycopy(header, 0, render, 0, header.length);
+        int offset = header.length;
+        for(int i = top; i < top + clippedHeight; i++)
         {
-            sb.append("GAME WON" + "\r\n");
+            System.arraycopy(source, i * rowLength + left, render, offset, clippedWidth);
+            offset += clippedWidth;
+            System.arraycopy(LINE_END, 0, render, offset, LINE_END.length);
+            offset += LINE_END.length;
         }
-        else if(isLose)
+        if(status != null)
         {
-            sb.append("GAME LOST" + "\r\n");
+            System.arraycopy(status, 0, render, offset, status.length);
+            offset += status.length;
         }
+        System.arraycopy(LINE_END, 0, render, offset, LINE_END.length);
+        offset += LINE_END.length;
+        return ByteBuffer.wrap(render, 0, offset);
+    }
 
-        sb.append("\r\n");
-        return sb.toString();
+    /**
+     * Get the game status line.
+     * @return The "GAME WON" or "GAME LOST" line, or null if the game is not over.
+     */
+    private byte[] getGameStatus()
+    {
+        if(isWin())
+        {
+            return GAME_WON;
+        }
+        else if(isLose())
+        {
+            return GAME_LOST;
+        }
+        return null;
     }
 
     /**
      * Reveal all cells on the board. (CHEAT)
-     * @return The grid as a string (following the protocol).
+     * @return The grid following the protocol.
      * @implNote This method does not set the current grid.
      */
-    public String revealAllCells()
+    public ByteBuffer revealAllCells()
     {
         if(numberTurnsPlayed == 0)
         {
-            return new String("GAME NOT STARTED\r\n\r\n");
+            return notStartedProtocol();
         }
         return convertGridToProtocol(true);
     }
 
     /**
-     * Get the number of mines in the neighborhood of a cell.
-     * @param x The x coordinate of the cell.
-     * @param y The y coordinate of the cell.
-     * @return The number of mines in the neighborhood of the cell.
+     * Place mines on the board.
+     * @implNote The mines come from the board pool when a ready board fits the first move,
+     * and are generated on the spot otherwise.
      */
-    private int getNumberOfAdjacentMines(int x, int y)
+    private void placeMines(int xAvoid, int yAvoid)
     {
-        int numMines = 0;
-        for(int i = x - 1; i <= x + 1; i++)
+        boolean[] mines = BoardPool.take(new BoardPool.Key(gridSize, numberMines, noGuess), xAvoid, yAvoid);
+        if(mines == null)
+        {
+            mines = generateLayout(gridSize, numberMines, xAvoid, yAvoid, noGuess);
+        }
+        if(mines == null)
+        {
+            // Too many mines for the solver to find a board, this game may need a guess
+            System.out.println("No no-guess board of size " + gridSize + " with " + numberMines 
+                + " mines found, playing a random one.");
+            mines = generateMines(gridSize, numberMines, xAvoid, yAvoid, true);
+        }
+        for(int i = 0; i < gridSize; i++)
         {
-            for(int j = y - 1; j <= y + 1; j++)
+            for(int j = 0; j < gridSize; j++)
             {
-                if(i >= 0 && i < gridSize && j >= 0 && j < gridSize)
+                if(mines[i * gridSize + j])
                 {
-                    if(i == x && j == y)
-                    {
-                        continue;
-                    }
-                    if(currentGrid[i][j].getValue() == Coordinate.BOMB)
-                    {
-                        numMines++;
-                    }
+                    currentGrid[i][j].setValue(Coordinate.BOMB);
                 }
             }
         }
-        return numMines;
     }
 
     /**
-     * Place mines on the board.
-     * @implNote The mines are placed randomly on the board.
+     * Generate the mines of a board.
+     * @param gridSize The size of the grid.
+     * @param numberMines The number of mines.
+     * @param xAvoid The x coordinate of the first move.
+     * @param yAvoid The y coordinate of the first move.
+     * @param noGuess If true, the board can be cleared from the first move without guessing.
+     * @return The mines, cell (x, y) at index x * gridSize + y, or null in no-guess mode if no
+     * board the solver clears was found.
+     * @implNote The mines are placed randomly on the board. In no-guess mode the
+     * placement is drawn again until the solver clears the board from the first move, at most
+     * MAX_NO_GUESS_ATTEMPTS times.
      */
-    private void placeMines(int xAvoid, int yAvoid)
+    public static boolean[] generateLayout(short gridSize, int numberMines, 
+        int xAvoid, int yAvoid, boolean noGuess)
+    {
+        boolean[] mines = generateMines(gridSize, numberMines, xAvoid, yAvoid, noGuess);
+        for(int attempt = 1; noGuess && !BoardSolver.isSolvable(gridSize, mines, xAvoid, yAvoid); attempt++)
+        {
+            if(attempt == MAX_NO_GUESS_ATTEMPTS)
+            {
+                return null;
+            }
+            mines = generateMines(gridSize, numberMines, xAvoid, yAvoid, true);
+        }
+        return mines;
+    }
+
+    /**
+     * Draw random mine positions.
+     * @param gridSize The size of the grid.
+     * @param numberMines The number of mines.
+     * @param xAvoid The x coordinate of the first move.
+     * @param yAvoid The y coordinate of the first move.
+     * @param avoidNeighbours If true, the neighbours of the first move are kept free too.
+     * @return The mines, cell (x, y) at index x * gridSize + y.
+     * @implNote The neighbours are only kept free if there is room left for the mines.
+     */
+    private static boolean[] generateMines(short gridSize, int numberMines, 
+        int xAvoid, int yAvoid, boolean avoidNeighbours)
     {
+        int avoidRadius = avoidNeighbours && gridSize * gridSize - 9 >= numberMines ? 1 : 0;
+        boolean[] mines = new boolean[gridSize * gridSize];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         for(int i = 0; i < numberMines; i++)
         {
-            int x = (int)(Math.random() * gridSize);
-            int y = (int)(Math.random() * gridSize);
+            int x = random.nextInt(gridSize);
+            int y = random.nextInt(gridSize);
             // If there is already a mine at this location or coordinate to avoid, try again
-            if(currentGrid[x][y].getValue() == Coordinate.BOMB 
-                || (x == xAvoid && y == yAvoid))
+            if(mines[x * gridSize + y] 
+                || (Math.abs(x - xAvoid) <= avoidRadius && Math.abs(y - yAvoid) <= avoidRadius))
             {
                 i--;
             }
             else
             {
-                currentGrid[x][y].setValue(Coordinate.BOMB);
+                mines[x * gridSize + y] = true;
             }
         }
+        return mines;
     }
 
     /**
-     * Print the board to the console.
-     * @implNote Used for debugging.
+     * Get the size of the snapshot of the grid.
+     * @return The number of bytes written by writeSnapshot.
      */
-    public void printBoard()
+    public int getSnapshotSize()
+    {
+        return 2 + 1 + 2 + 1 + 3 * 8 * getNumberSnapshotWords(gridSize);
+    }
+
+    /**
+     * Write the state of the grid: size, mode, turns, then the mines,
+     * revealed and flagged cells as bitsets, cell (x, y) at bit x * gridSize + y.
+     * @param buffer The buffer receiving the snapshot.
+     */
+    public void writeSnapshot(ByteBuffer buffer)
     {
+        int numberWords = getNumberSnapshotWords(gridSize);
+        long[] mines = new long[numberWords];
+        long[] revealed = new long[numberWords];
+        long[] flagged = new long[numberWords];
         for(int i = 0; i < gridSize; i++)
         {
             for(int j = 0; j < gridSize; j++)
             {
-                System.out.print(currentGrid[i][j].getValue() + " ");
+                int cell = i * gridSize + j;
+                if(currentGrid[i][j].getValue() == Coordinate.BOMB)
+                {
+                    mines[cell >> 6] |= 1L << cell;
+                }
+                if(currentGrid[i][j].getStatus() == Coordinate.Status.REVEALED)
+                {
+                    revealed[cell >> 6] |= 1L << cell;
+                }
+                else if(currentGrid[i][j].getStatus() == Coordinate.Status.FLAGGED)
+                {
+                    flagged[cell >> 6] |= 1L << cell;
+                }
+            }
+        }
+        buffer.putShort(gridSize);
+        buffer.put((byte)(noGuess ? 1 : 0));
+        buffer.putShort(numberTurnsPlayed);
+        buffer.put((byte)(mineRevealed ? 1 : 0));
+        for(long[] bitset : new long[][]{ mines, revealed, flagged })
+        {
+            for(long word : bitset)
+            {
+                buffer.putLong(word);
             }
-            System.out.println();
         }
-        System.out.println();
     }
 
     /**
-     * Is the current board a win?
-     * @return True if the current board is a win, false otherwise.
+     * Rebuild a grid from its snapshot.
+     * @param buffer The buffer holding the snapshot, see writeSnapshot.
+     * @return The grid.
+     * @implNote The neighbour counts and renderings are computed again from the mines.
      */
-    public boolean isWin()
+    public static Grid readSnapshot(ByteBuffer buffer)
     {
-        short numUnrevealed = 0;
+        short gridSize = buffer.getShort();
+        boolean noGuess = buffer.get() != 0;
+        Grid grid = new Grid(gridSize, noGuess);
+        grid.numberTurnsPlayed = buffer.getShort();
+        grid.mineRevealed = buffer.get() != 0;
+        int numberWords = getNumberSnapshotWords(gridSize);
+        long[][] bitsets = new long[3][numberWords];
+        for(long[] bitset : bitsets)
+        {
+            for(int k = 0; k < numberWords; k++)
+            {
+                bitset[k] = buffer.getLong();
+            }
+        }
+        // The mines are only placed on the first move, flags may come before it
+        if(grid.numberTurnsPlayed > 0)
+        {
+            for(int i = 0; i < gridSize; i++)
+            {
+                for(int j = 0; j < gridSize; j++)
+                {
+                    int cell = i * gridSize + j;
+                    if((bitsets[0][cell >> 6] >>> cell & 1L) != 0)
+                    {
+                        grid.currentGrid[i][j].setValue(Coordinate.BOMB);
+                    }
+                }
+            }
+            grid.computeFinalGrid();
+        }
         for(int i = 0; i < gridSize; i++)
         {
             for(int j = 0; j < gridSize; j++)
             {
-                // Count the number of unrevealed/flagged cells
-                if(currentGrid[i][j].getStatus() 
-                    == Coordinate.Status.UNREVEALED ||
-                    currentGrid[i][j].getStatus() 
-                    == Coordinate.Status.FLAGGED)
+                int cell = i * gridSize + j;
+                if((bitsets[1][cell >> 6] >>> cell & 1L) != 0)
+                {
+                    grid.markRevealed(i, j);
+                }
+                else if((bitsets[2][cell >> 6] >>> cell & 1L) != 0)
                 {
-                    numUnrevealed++;
+                    grid.flagCell(i, j);
                 }
             }
         }
+        return grid;
+    }
 
-        // If the number of unrevealed cells is equal to the number of mines, the game is won
-        return numUnrevealed == numberMines;
+    /**
+     * Get the number of words of a bitset holding one bit per cell.
+     * @param gridSize The size of the grid.
+     * @return The number of longs.
+     */
+    private static int getNumberSnapshotWords(int gridSize)
+    {
+        return (gridSize * gridSize + 63) >> 6;
     }
 
     /**
-     * Is the current board a loss?
-     * @return True if the current board is a loss, false otherwise.
+     * Print the board to the console.
+     * @implNote Used for debugging.
      */
-    public boolean isLose()
+    public void printBoard()
     {
         for(int i = 0; i < gridSize; i++)
         {
             for(int j = 0; j < gridSize; j++)
             {
-                if(currentGrid[i][j].getValue() == Coordinate.BOMB)
-                {
-                    // If a bomb is revealed, the game is lost
-                    if(currentGrid[i][j].getStatus() 
-                        == Coordinate.Status.REVEALED)
-                    {
-                        return true;
-                    }
-                }
+                System.out.print(currentGrid[i][j].getValue() + " ");
             }
+            System.out.println();
         }
-        return false;
+        System.out.println();
+    }
+
+    /**
+     * Is the current board a win?
+     * @return True if the current board is a win, false otherwise.
+     * @implNote The number of unrevealed/flagged cells is kept up to date by the reveals.
+     */
+    public boolean isWin()
+    {
+        // If the number of unrevealed cells is equal to the number of mines, the game is won
+        return numberHidden == numberMines;
+    }
+
+    /**
+     * Is the current board a loss?
+     * @return True if the current board is a loss, false otherwise.
+     */
+    public boolean isLose()
+    {
+        // If a bomb is revealed, the game is lost
+        return mineRevealed;
     }
 }
@@ -0,0 +1,559 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+public class InfiniteBoard
+{
+    // Chunks are CHUNK_SIZE x CHUNK_SIZE squares of cells
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // Number of untouched chunks kept in memory, the others are recomputed from the seed
+    private static final int MAX_CACHED_CHUNKS = 64;
+    // Upper bound of cells revealed by a single flood fill
+    private static final int MAX_FLOOD_CELLS = 1 << 14;
+    private static final double DEFAULT_MINE_DENSITY = 0.15;
+
+    private static final byte[] LINE_END = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_LOST = "GAME LOST\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * A square of cells of the board.
+     * @implNote The mines are derived from the seed, the cells are only
+     * allocated once the player reveals or flags one of them.
+     */
+    private static class Chunk
+    {
+        // One bit per cell, bit y of row x
+        private final long[] mineRows = new long[CHUNK_SIZE];
+        // Protocol character of each cell, null while the chunk is untouched
+        private byte[] cells;
+    }
+
+    private final long seed;
+    private final double mineDensity;
+    // The first revealed cell and its neighbours never hold a mine
+    private boolean started = false;
+    private int safeX;
+    private int safeY;
+    private boolean mineRevealed = false;
+    private long numberRevealed = 0;
+
+    // Chunks holding the player's progress, kept for the whole game
+    private final Map<Long, Chunk> touchedChunks = new HashMap<>();
+    // Untouched chunks, least recently used first
+    private final LinkedHashMap<Long, Chunk> cachedChunks =
+        new LinkedHashMap<Long, Chunk>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest)
+            {
+                return size() > MAX_CACHED_CHUNKS;
+            }
+        };
+
+    /**
+     * Constructor for the InfiniteBoard class.
+     * @param seed The seed from which the mines are derived.
+     */
+    public InfiniteBoard(long seed)
+    {
+        this(seed, DEFAULT_MINE_DENSITY);
+    }
+
+    /**
+     * Constructor for the InfiniteBoard class.
+     * @param seed The seed from which the mines are derived.
+     * @param mineDensity The probability for a cell to hold a mine.
+     */
+    public InfiniteBoard(long seed, double mineDensity)
+    {
+        this.seed = seed;
+        this.mineDensity = mineDensity;
+    }
+
+    /**
+     * Get the key of the chunk holding a cell.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The chunk coordinates packed in a long.
+     */
+    private static long chunkKey(int x, int y)
+    {
+        return ((long)(x >> CHUNK_SHIFT) << 32) | ((y >> CHUNK_SHIFT) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the chunk holding a cell, computing it from the seed if needed.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The chunk holding the cell.
+     */
+    private Chunk getChunk(int x, int y)
+    {
+        long key = chunkKey(x, y);
+        Chunk chunk = touchedChunks.get(key);
+        if(chunk == null)
+        {
+            chunk = cachedChunks.get(key);
+        }
+        if(chunk == null)
+        {
+            chunk = generateChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+            cachedChunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Get the chunk holding a cell, moving it to the touched chunks.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The chunk holding the cell, with its cells allocated.
+     */
+    private Chunk getTouchedChunk(int x, int y)
+    {
+        long key = chunkKey(x, y);
+        Chunk chunk = touchedChunks.get(key);
+        if(chunk == null)
+        {
+            chunk = cachedChunks.remove(key);
+            if(chunk == null)
+            {
+                chunk = generateChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+            }
+            chunk.cells = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            Arrays.fill(chunk.cells, (byte)Coordinate.UNREVEALED);
+            touchedChunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Place the mines of a chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkY The y coordinate of the chunk.
+     * @return The chunk, untouched.
+     * @implNote The mines only depend on the seed and the chunk coordinates.
+     */
+    private Chunk generateChunk(int chunkX, int chunkY)
+    {
+        Chunk chunk = new Chunk();
+        SplittableRandom random = new SplittableRandom(seed
+            ^ (chunkX * 0x9E3779B97F4A7C15L) ^ (chunkY * 0xC2B2AE3D27D4EB4FL));
+        for(int i = 0; i < CHUNK_SIZE; i++)
+        {
+            long row = 0;
+            for(int j = 0; j < CHUNK_SIZE; j++)
+            {
+                if(random.nextDouble() < mineDensity)
+                {
+                    row |= 1L << j;
+                }
+            }
+            chunk.mineRows[i] = row;
+        }
+        return chunk;
+    }
+
+    /**
+     * Is there a mine on a cell?
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return True if the cell holds a mine, false otherwise.
+     */
+    private boolean isMine(int x, int y)
+    {
+        if(started && Math.abs((long)x - safeX) <= 1 && Math.abs((long)y - safeY) <= 1)
+        {
+            return false;
+        }
+        return (getChunk(x, y).mineRows[x & CHUNK_MASK] >>> (y & CHUNK_MASK) & 1L) != 0;
+    }
+
+    /**
+     * Get the number of mines in the neighborhood of a cell.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The number of mines in the neighborhood of the cell.
+     * @implNote The neighbours may lie in other chunks.
+     */
+    private int getNumberOfAdjacentMines(int x, int y)
+    {
+        int numMines = 0;
+        for(int i = x - 1; i <= x + 1; i++)
+        {
+            for(int j = y - 1; j <= y + 1; j++)
+            {
+                if((i != x || j != y) && isMine(i, j))
+                {
+                    numMines++;
+                }
+            }
+        }
+        return numMines;
+    }
+
+    /**
+     * Get the protocol character of a cell.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The character shown to the player.
+     */
+    private byte getCell(int x, int y)
+    {
+        Chunk chunk = touchedChunks.get(chunkKey(x, y));
+        if(chunk == null)
+        {
+            return Coordinate.UNREVEALED;
+        }
+        return chunk.cells[(x & CHUNK_MASK) * CHUNK_SIZE + (y & CHUNK_MASK)];
+    }
+
+    /**
+     * Set the protocol character of a cell.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @param value The character shown to the player.
+     */
+    private void setCell(int x, int y, byte value)
+    {
+        getTouchedChunk(x, y).cells[(x & CHUNK_MASK) * CHUNK_SIZE + (y & CHUNK_MASK)] = value;
+    }
+
+    /**
+     * Has the first cell been revealed?
+     * @return True if the game started, false otherwise.
+     */
+    public boolean isStarted()
+    {
+        return started;
+    }
+
+    /**
+     * Flag a cell on the board.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @implNote Used for the FLAG command.
+     */
+    public void flagCell(int x, int y)
+    {
+        byte cell = getCell(x, y);
+        // If the cell is already flagged, unflag it
+        if(cell == Coordinate.FLAG)
+        {
+            setCell(x, y, (byte)Coordinate.UNREVEALED);
+        }
+        // If the cell is unrevealed, flag it
+        else if(cell == Coordinate.UNREVEALED)
+        {
+            setCell(x, y, (byte)Coordinate.FLAG);
+        }
+        // If the cell is revealed, do nothing
+    }
+
+    /**
+     * Reveal a cell on the board.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @implNote Used for the TRY command.
+     */
+    public void revealCell(int x, int y)
+    {
+        // The first revealed cell defines the safe area
+        if(!started)
+        {
+            started = true;
+            safeX = x;
+            safeY = y;
+        }
+        if(getCell(x, y) != Coordinate.UNREVEALED)
+        {
+            return;
+        }
+        // If the cell is a bomb, game over
+        if(isMine(x, y))
+        {
+            setCell(x, y, (byte)Coordinate.BOMB);
+            mineRevealed = true;
+            return;
+        }
+        propagateReveal(x, y);
+    }
+
+    /**
+     * Reveal the neighbours of a revealed number whose mines are all flagged.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @implNote Used for the CHORD command, a wrongly placed flag loses the game.
+     */
+    public void chordCell(int x, int y)
+    {
+        byte cell = getCell(x, y);
+        if(cell < '0' || cell > '8')
+        {
+            return;
+        }
+        // Count the flags around the cell
+        int numFlags = 0;
+        for(int i = x - 1; i <= x + 1; i++)
+        {
+            for(int j = y - 1; j <= y + 1; j++)
+            {
+                if(getCell(i, j) == Coordinate.FLAG)
+                {
+                    numFlags++;
+                }
+            }
+        }
+        if(numFlags != cell - '0')
+        {
+            return;
+        }
+        for(int i = x - 1; i <= x + 1; i++)
+        {
+            for(int j = y - 1; j <= y + 1; j++)
+            {
+                if(getCell(i, j) != Coordinate.UNREVEALED)
+                {
+                    continue;
+                }
+                if(isMine(i, j))
+                {
+                    setCell(i, j, (byte)Coordinate.BOMB);
+                    mineRevealed = true;
+                }
+                else
+                {
+                    propagateReveal(i, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Propagate the reveal operation from a cell, across chunk boundaries.
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @implNote Breadth first as the empty areas are not bounded by the board,
+     * and stops after MAX_FLOOD_CELLS cells so the revealed area stays around the cell.
+     */
+    private void propagateReveal(int x, int y)
+    {
+        long[] queue = new long[64];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ((long)x << 32) | (y & 0xFFFFFFFFL);
+        int numberFlooded = 0;
+        while(head < tail && numberFlooded < MAX_FLOOD_CELLS)
+        {
+            long packed = queue[head++];
+            int i = (int)(packed >> 32);
+            int j = (int)packed;
+            if(getCell(i, j) != Coordinate.UNREVEALED || isMine(i, j))
+            {
+                continue;
+            }
+            int numMines = getNumberOfAdjacentMines(i, j);
+            setCell(i, j, (byte)('0' + numMines));
+            numberRevealed++;
+            numberFlooded++;
+            // If the cell is empty, reveal all adjacent cells
+            if(numMines == 0)
+            {
+                for(int k = i - 1; k <= i + 1; k++)
+                {
+                    for(int l = j - 1; l <= j + 1; l++)
+                    {
+                        if((k != i || l != j) && getCell(k, l) == Coordinate.UNREVEALED)
+                        {
+                            if(tail == queue.length)
+                            {
+                                queue = Arrays.copyOf(queue, queue.length * 2);
+                            }
+                            queue[tail++] = ((long)k << 32) | (l & 0xFFFFFFFFL);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a rectangular window of the board following the protocol.
+     * @param x The x coordinate of the top left cell of the window.
+     * @param y The y coordinate of the top left cell of the window.
+     * @param width The number of columns of the window.
+     * @param height The number of rows of the window.
+     * @param forceReveal If true, reveal all cells of the window. (CHEAT)
+     * @return A "VIEW x y width height" line, the rows of the window and the game status.
+     * @implNote Only the chunks touched by the player are read, unless forceReveal is set.
+     * The window is clipped to the int coordinates, the header gives its clipped size.
+     */
+    public ByteBuffer renderViewport(int x, int y, int width, int height, boolean forceReveal)
+    {
+        height = (int)Math.max(0, Math.min(height, (long)Integer.MAX_VALUE - x + 1));
+        width = (int)Math.max(0, Math.min(width, (long)Integer.MAX_VALUE - y + 1));
+        byte[] header = ("VIEW " + x + " " + y + " " + width + " " + height + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+        int rowLength = width + LINE_END.length;
+        byte[] render = new byte[header.length + height * rowLength
+            + GAME_LOST.length + LINE_END.length];
+        System.arraycopy(header, 0, render, 0, header.length);
+        int offset = header.length;
+        forceReveal |= mineRevealed;
+        // Counted from the window, x + height may not fit in an int
+        for(int row = 0; row < height; row++)
+        {
+            int i = x + row;
+            for(int column = 0; column < width; column++)
+            {
+                int j = y + column;
+                byte cell = getCell(i, j);
+                if(forceReveal && (cell == Coordinate.UNREVEALED || cell == Coordinate.FLAG))
+                {
+                    cell = isMine(i, j) ? (byte)Coordinate.BOMB
+                        : (byte)('0' + getNumberOfAdjacentMines(i, j));
+                }
+                render[offset++] = cell;
+            }
+            System.arraycopy(LINE_END, 0, render, offset, LINE_END.length);
+            offset += LINE_END.length;
+        }
+        if(mineRevealed)
+        {
+            System.arraycopy(GAME_LOST, 0, render, offset, GAME_LOST.length);
+            offset += GAME_LOST.length;
+        }
+        System.arraycopy(LINE_END, 0, render, offset, LINE_END.length);
+        offset += LINE_END.length;
+        return ByteBuffer.wrap(render, 0, offset);
+    }
+
+    /**
+     * Get the size of the snapshot of the board.
+     * @return The number of bytes written by writeSnapshot.
+     */
+    public int getSnapshotSize()
+    {
+        return 8 + 8 + 1 + 4 + 4 + 1 + 8 + 4 + touchedChunks.size() * (8 + 2 * CHUNK_SIZE * 8);
+    }
+
+    /**
+     * Write the state of the board: seed, safe area, then the revealed and
+     * flagged cells of each touched chunk as bitsets, one long per row.
+     * @param buffer The buffer receiving the snapshot.
+     * @implNote The revealed values are not written, they follow from the seed.
+     */
+    public void writeSnapshot(ByteBuffer buffer)
+    {
+        buffer.putLong(seed);
+        buffer.putDouble(mineDensity);
+        buffer.put((byte)(started ? 1 : 0));
+        buffer.putInt(safeX);
+        buffer.putInt(safeY);
+        buffer.put((byte)(mineRevealed ? 1 : 0));
+        buffer.putLong(numberRevealed);
+        buffer.putInt(touchedChunks.size());
+        for(Map.Entry<Long, Chunk> entry : touchedChunks.entrySet())
+        {
+            buffer.putLong(entry.getKey());
+            byte[] cells = entry.getValue().cells;
+            for(int flagged = 0; flagged < 2; flagged++)
+            {
+                for(int i = 0; i < CHUNK_SIZE; i++)
+                {
+                    long row = 0;
+                    for(int j = 0; j < CHUNK_SIZE; j++)
+                    {
+                        byte cell = cells[i * CHUNK_SIZE + j];
+                        boolean set = flagged == 0 
+                            ? cell != Coordinate.UNREVEALED && cell != Coordinate.FLAG
+                            : cell == Coordinate.FLAG;
+                        if(set)
+                        {
+                            row |= 1L << j;
+                        }
+                    }
+                    buffer.putLong(row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuild a board from its snapshot.
+     * @param buffer The buffer holding the snapshot, see writeSnapshot.
+     * @return The board.
+     */
+    public static InfiniteBoard readSnapshot(ByteBuffer buffer)
+    {
+        InfiniteBoard board = new InfiniteBoard(buffer.getLong(), buffer.getDouble());
+        board.started = buffer.get() != 0;
+        board.safeX = buffer.getInt();
+        board.safeY = buffer.getInt();
+        board.mineRevealed = buffer.get() != 0;
+        board.numberRevealed = buffer.getLong();
+        int numberChunks = buffer.getInt();
+        for(int k = 0; k < numberChunks; k++)
+        {
+            long key = buffer.getLong();
+            int originX = (int)(key >> 32) << CHUNK_SHIFT;
+            int originY = (int)key << CHUNK_SHIFT;
+            // Allocate the chunk even if all its cells are hidden again
+            board.getTouchedChunk(originX, originY);
+            for(int flagged = 0; flagged < 2; flagged++)
+            {
+                for(int i = 0; i < CHUNK_SIZE; i++)
+                {
+                    long row = buffer.getLong();
+                    for(int j = 0; j < CHUNK_SIZE; j++)
+                    {
+                        if((row >>> j & 1L) == 0)
+                        {
+                            continue;
+                        }
+                        int x = originX + i;
+                        int y = originY + j;
+                        if(flagged != 0)
+                        {
+                            board.setCell(x, y, (byte)Coordinate.FLAG);
+                        }
+                        else if(board.isMine(x, y))
+                        {
+                            board.setCell(x, y, (byte)Coordinate.BOMB);
+                        }
+                        else
+                        {
+                            board.setCell(x, y, (byte)('0' + board.getNumberOfAdjacentMines(x, y)));
+                        }
+                    }
+                }
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Get the number of revealed cells.
+     * @return The number of revealed cells.
+     */
+    public long getNumberRevealed()
+    {
+        return numberRevealed;
+    }
+
+    /**
+     * Is the current board a loss?
+     * @return True if a mine was revealed, false otherwise.
+     * @implNote An infinite board can't be won.
+     */
+    public boolean isLose()
+    {
+        return mineRevealed;
+    }
+}
@@ -0,0 +1,352 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writer of a JSON message, encoded to UTF-8 as it is written, with room left before it to
+ * frame it as a WebSocket message without copying it first.
+ * @implNote No intermediate String: the strings are escaped and encoded char by char into
+ * the buffer. Nesting is limited to 64 levels.
+ */
+public class JsonWriter
+{
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] buffer;
+    private int position = WebSocket.MAX_FRAME_HEADER;
+    // Bit i is set while the container at depth i has no element yet
+    private long empty = 0;
+    private int depth = 0;
+    // True after a name, its value follows without a comma
+    private boolean afterName = false;
+
+    /**
+     * Constructor for the JsonWriter class.
+     */
+    public JsonWriter()
+    {
+        this(256);
+    }
+
+    /**
+     * Constructor for the JsonWriter class.
+     * @param capacity The expected size of the message, in bytes.
+     */
+    public JsonWriter(int capacity)
+    {
+        buffer = new byte[WebSocket.MAX_FRAME_HEADER + capacity];
+    }
+
+    /**
+     * Open an object.
+     * @return This writer.
+     */
+    public JsonWriter beginObject()
+    {
+        return begin('{');
+    }
+
+    /**
+     * Close the current object.
+     * @return This writer.
+     */
+    public JsonWriter endObject()
+    {
+        return end('}');
+    }
+
+    /**
+     * Open an array.
+     * @return This writer.
+     */
+    public JsonWriter beginArray()
+    {
+        return begin('[');
+    }
+
+    /**
+     * Close the current array.
+     * @return This writer.
+     */
+    public JsonWriter endArray()
+    {
+        return end(']');
+    }
+
+    /**
+     * Write the name of the next member of the current object.
+     * @param name The name.
+     * @return This writer.
+     */
+    public JsonWriter name(String name)
+    {
+        separate();
+        writeString(name);
+        ensure(1);
+        buffer[position++] = ':';
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a string value.
+     * @param value The value, escaped as needed, or null.
+     * @return This writer.
+     */
+    public JsonWriter value(String value)
+    {
+        if(value == null)
+        {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * Write a number value.
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonWriter value(long value)
+    {
+        separate();
+        if(value == Long.MIN_VALUE)
+        {
+            writeAscii(Long.toString(value));
+            return this;
+        }
+        ensure(20);
+        if(value < 0)
+        {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        // Digits written from the end, then in place
+        int length = 1;
+        for(long rest = value; rest >= 10; rest /= 10)
+        {
+            length++;
+        }
+        for(int i = position + length - 1; i >= position; i--)
+        {
+            buffer[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        position += length;
+        return this;
+    }
+
+    /**
+     * Write a boolean value.
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonWriter value(boolean value)
+    {
+        separate();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Write a null value.
+     * @return This writer.
+     */
+    public JsonWriter nullValue()
+    {
+        separate();
+        writeAscii("null");
+        return this;
+    }
+
+    /**
+     * Get the message written.
+     * @return A view of the message, valid until the next write.
+     */
+    public ByteBuffer toByteBuffer()
+    {
+        return ByteBuffer.wrap(buffer, WebSocket.MAX_FRAME_HEADER, position - WebSocket.MAX_FRAME_HEADER);
+    }
+
+    /**
+     * Get the message written as a WebSocket text frame.
+     * @return The frame, the only copy of the message.
+     */
+    public byte[] toFrame()
+    {
+        int start = WebSocket.frameInPlace(buffer, WebSocket.MAX_FRAME_HEADER,
+            position - WebSocket.MAX_FRAME_HEADER);
+        return Arrays.copyOfRange(buffer, start, position);
+    }
+
+    /**
+     * Open a container.
+     * @param bracket The opening bracket.
+     * @return This writer.
+     */
+    private JsonWriter begin(char bracket)
+    {
+        separate();
+        ensure(1);
+        buffer[position++] = (byte)bracket;
+        depth++;
+        empty |= 1L << depth;
+        return this;
+    }
+
+    /**
+     * Close the current container.
+     * @param bracket The closing bracket.
+     * @return This writer.
+     */
+    private JsonWriter end(char bracket)
+    {
+        ensure(1);
+        buffer[position++] = (byte)bracket;
+        empty &= ~(1L << depth);
+        depth--;
+        return this;
+    }
+
+    /**
+     * Write the comma before an element, unless it is the first of its container or a value
+     * after its name.
+     */
+    private void separate()
+    {
+        if(afterName)
+        {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if((empty & bit) != 0)
+        {
+            empty &= ~bit;
+        }
+        else if(depth > 0)
+        {
+            ensure(1);
+            buffer[position++] = ',';
+        }
+    }
+
+    /**
+     * Write a quoted string, escaped and encoded to UTF-8.
+     * @param value The string.
+     */
+    private void writeString(String value)
+    {
+        // At most 6 bytes per char, for the \\u escapes
+        ensure(value.length() * 6 + 2);
+        buffer[position++] = '"';
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\')
+            {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte)c;
+            }
+            else if(c < 0x20)
+            {
+                writeControl(c);
+            }
+            else if(c < 0x80)
+            {
+                buffer[position++] = (byte)c;
+            }
+            else if(c < 0x800)
+            {
+                buffer[position++] = (byte)(0xC0 | c >> 6);
+                buffer[position++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte)(0xF0 | codePoint >> 18);
+                buffer[position++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                buffer[position++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                buffer[position++] = (byte)(0x80 | codePoint & 0x3F);
+            }
+            else if(Character.isSurrogate(c))
+            {
+                // A lone surrogate has no UTF-8 encoding, kept as an escape
+                writeUnicodeEscape(c);
+            }
+            else
+            {
+                buffer[position++] = (byte)(0xE0 | c >> 12);
+                buffer[position++] = (byte)(0x80 | c >> 6 & 0x3F);
+                buffer[position++] = (byte)(0x80 | c & 0x3F);
+            }
+        }
+        buffer[position++] = '"';
+    }
+
+    /**
+     * Write the escape of a control character.
+     * @param c The character, below 0x20.
+     */
+    private void writeControl(char c)
+    {
+        switch(c)
+        {
+            case '\n':
+                buffer[position++] = '\\';
+                buffer[position++] = 'n';
+                break;
+            case '\r':
+                buffer[position++] = '\\';
+                buffer[position++] = 'r';
+                break;
+            case '\t':
+                buffer[position++] = '\\';
+                buffer[position++] = 't';
+                break;
+            default:
+                writeUnicodeEscape(c);
+        }
+    }
+
+    /**
+     * Write a \\u escape.
+     * @param c The character.
+     */
+    private void writeUnicodeEscape(char c)
+    {
+        buffer[position++] = '\\';
+        buffer[position++] = 'u';
+        buffer[position++] = HEX[c >> 12 & 0xF];
+        buffer[position++] = HEX[c >> 8 & 0xF];
+        buffer[position++] = HEX[c >> 4 & 0xF];
+        buffer[position++] = HEX[c & 0xF];
+    }
+
+    /**
+     * Write ASCII text as is.
+     * @param text The text.
+     */
+    private void writeAscii(String text)
+    {
+        ensure(text.length());
+        for(int i = 0; i < text.length(); i++)
+        {
+            buffer[position++] = (byte)text.charAt(i);
+        }
+    }
+
+    /**
+     * Make room in the buffer.
+     * @param length The number of bytes about to be written.
+     */
+    private void ensure(int length)
+    {
+        if(position + length > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+        }
+    }
+}
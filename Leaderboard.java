@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Leaderboard
+{
+    /**
+     * A result of the leaderboard.
+     * @param name The name of the player.
+     * @param time The time of the player, in milliseconds.
+     * @param gridSize The size of the board, 0 if unknown.
+     * @param mode The game mode.
+     * @param timestamp The end of the game, in milliseconds since the epoch, 0 if unknown.
+     */
+    public record Entry(String name, long time, short gridSize, SessionInfo.Mode mode, long timestamp) {}
+
+    // Fastest first, the name breaks the ties so two players with the same time both appear
+    private static final Comparator<Entry> RANKING_ORDER =
+        Comparator.comparingLong(Entry::time).thenComparing(Entry::name);
+    // The rank index counts the players per slice of time: slices of 16 ms up to about a minute,
+    // then slices twice as wide every time the times double, each within 1/2048 of its times
+    private static final int BUCKET_MILLIS = 16;
+    private static final int LINEAR_BITS = 12;
+    private static final int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+    // Slices per doubling of the times after the linear ones
+    private static final int OCTAVE_BUCKETS = LINEAR_BUCKETS / 2;
+    // Enough for the times up to centuries, the slower times share the last slice
+    private static final int NUMBER_BUCKETS = 1 << 16;
+
+    /**
+     * Fenwick tree of the number of players per time slice.
+     * @implNote Each node is updated atomically, a query racing with an update may be off by
+     * the players moving.
+     */
+    private static class RankIndex
+    {
+        // Node i covers the buckets (i - lowest bit of i, i], the node 0 is unused
+        private final AtomicIntegerArray tree = new AtomicIntegerArray(NUMBER_BUCKETS + 1);
+
+        /**
+         * Count a player in or out of a bucket.
+         * @param bucket The bucket.
+         * @param delta 1 to count the player in, -1 to count it out.
+         */
+        private void add(int bucket, int delta)
+        {
+            for(int i = bucket + 1; i <= NUMBER_BUCKETS; i += i & -i)
+            {
+                tree.addAndGet(i, delta);
+            }
+        }
+
+        /**
+         * Count the players in the buckets before a bucket.
+         * @param bucket The bucket.
+         * @return The number of players faster than the bucket.
+         */
+        private int countBefore(int bucket)
+        {
+            int count = 0;
+            for(int i = bucket; i > 0; i -= i & -i)
+            {
+                count += tree.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Find the bucket holding the player of a rank.
+         * @param rank The rank, 0 for the fastest player.
+         * @return The bucket in the upper 32 bits, the rank of the player in its bucket in the
+         * lower 32 bits, or -1 if there are not that many players.
+         */
+        private long find(int rank)
+        {
+            int position = 0;
+            for(int step = NUMBER_BUCKETS; step > 0; step >>= 1)
+            {
+                int next = position + step;
+                if(next <= NUMBER_BUCKETS && tree.get(next) <= rank)
+                {
+                    position = next;
+                    rank -= tree.get(next);
+                }
+            }
+            return position == NUMBER_BUCKETS ? -1 : ((long)position << 32) | rank;
+        }
+    }
+
+    // Always sorted, read in order without sorting
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(RANKING_ORDER);
+    // Entry of each player, to find it in the ranking
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final RankIndex rankIndex = new RankIndex();
+    // Incremented after each change, so the renderings of the leaderboard know when to refresh
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Add the result of a player, kept only if it beats the previous one.
+     * @param entry The result.
+     * @return True if the result is the new best time of the player.
+     * @implNote O(log n). The updates of a player are serialized on its index entry, so two
+     * results of the same player finishing together never lose the best one. A reader of the
+     * ranking may miss a player while it moves.
+     */
+    public boolean put(Entry entry)
+    {
+        Entry best = entries.compute(entry.name(), (player, previous) ->
+        {
+            if(previous != null)
+            {
+                if(previous.time() <= entry.time())
+                {
+                    return previous;
+                }
+                ranking.remove(previous);
+                rankIndex.add(getBucket(previous.time()), -1);
+            }
+            ranking.add(entry);
+            rankIndex.add(getBucket(entry.time()), 1);
+            return entry;
+        });
+        if(best != entry)
+        {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Get the time of a player.
+     * @param name The name of the player.
+     * @return The time in milliseconds, or null if the player has no result.
+     */
+    public Long getTime(String name)
+    {
+        Entry entry = entries.get(name);
+        return entry != null ? entry.time() : null;
+    }
+
+    /**
+     * Get the fastest players.
+     * @param limit The maximum number of players.
+     * @return The players, fastest first.
+     * @implNote O(limit), the ranking is already sorted.
+     */
+    public List<Entry> top(int limit)
+    {
+        List<Entry> top = new ArrayList<>(Math.min(limit, 64));
+        for(Entry entry : ranking)
+        {
+            if(top.size() == limit)
+            {
+                break;
+            }
+            top.add(entry);
+        }
+        return top;
+    }
+
+    /**
+     * Get a page of the ranking.
+     * @param offset The rank of the first player of the page, 0 for the fastest.
+     * @param limit The maximum number of players.
+     * @return The players, fastest first.
+     * @implNote O(log n) to find the first player, then O(limit), plus the players of the same
+     * time slice before the first one.
+     */
+    public List<Entry> getPage(int offset, int limit)
+    {
+        List<Entry> page = new ArrayList<>(Math.min(limit, 64));
+        if(offset < 0 || limit <= 0)
+        {
+            return page;
+        }
+        long position = rankIndex.find(offset);
+        if(position < 0)
+        {
+            return page;
+        }
+        int skip = (int)position;
+        for(Entry entry : ranking.tailSet(getBucketStart((int)(position >>> 32))))
+        {
+            if(page.size() == limit)
+            {
+                break;
+            }
+            if(skip > 0)
+            {
+                skip--;
+                continue;
+            }
+            page.add(entry);
+        }
+        return page;
+    }
+
+    /**
+     * Get the rank of a player.
+     * @param name The name of the player.
+     * @return The rank, 1 for the fastest player, or -1 if the player has no result.
+     * @implNote O(log n), plus the players of the same time slice.
+     */
+    public int getRank(String name)
+    {
+        Entry entry = entries.get(name);
+        if(entry == null)
+        {
+            return -1;
+        }
+        int bucket = getBucket(entry.time());
+        return rankIndex.countBefore(bucket) + ranking.subSet(getBucketStart(bucket), true, entry, false).size() + 1;
+    }
+
+    /**
+     * Get the time slice of a time.
+     * @param time The time, in milliseconds.
+     * @return The bucket of the rank index.
+     * @implNote The slices grow with the time, so that a slice never holds more than the
+     * players within about 0.05% of one another, however slow.
+     */
+    private static int getBucket(long time)
+    {
+        long slice = Math.max(time, 0) / BUCKET_MILLIS;
+        if(slice < LINEAR_BUCKETS)
+        {
+            return (int)slice;
+        }
+        // The slice is in [2^(LINEAR_BITS + octave - 1), 2^(LINEAR_BITS + octave)), in buckets of 2^octave
+        int octave = 64 - Long.numberOfLeadingZeros(slice) - LINEAR_BITS;
+        long bucket = LINEAR_BUCKETS + (long)(octave - 1) * OCTAVE_BUCKETS + (slice >>> octave) - OCTAVE_BUCKETS;
+        return (int)Math.min(bucket, NUMBER_BUCKETS - 1);
+    }
+
+    /**
+     * Get a bound before every entry of a time slice.
+     * @param bucket The bucket of the rank index.
+     * @return An entry ordered before the players of the bucket and after the ones before.
+     */
+    private static Entry getBucketStart(int bucket)
+    {
+        long slice = bucket;
+        if(bucket >= LINEAR_BUCKETS)
+        {
+            int octave = (bucket - LINEAR_BUCKETS) / OCTAVE_BUCKETS + 1;
+            slice = (long)((bucket - LINEAR_BUCKETS) % OCTAVE_BUCKETS + OCTAVE_BUCKETS) << octave;
+        }
+        return new Entry("", bucket == 0 ? Long.MIN_VALUE : slice * BUCKET_MILLIS, (short)0,
+            SessionInfo.Mode.CLASSIC, 0);
+    }
+
+    /**
+     * Get the whole ranking.
+     * @return A read-only view, fastest first, weakly consistent while it changes.
+     */
+    public NavigableSet<Entry> getRanking()
+    {
+        return Collections.unmodifiableNavigableSet(ranking);
+    }
+
+    /**
+     * Get the version of the leaderboard.
+     * @return A number that changes once a change of the leaderboard is visible.
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Get the number of players.
+     * @return The number of players with a result.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+}
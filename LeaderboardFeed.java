@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LeaderboardFeed
+{
+    private final Leaderboard leaderboard;
+    private final int topSize;
+    private final long intervalMillis;
+    private final BroadcastChannel channel = new BroadcastChannel(null);
+    // Top of the leaderboard as the subscribers know it, only used by the feed thread once started
+    private List<Leaderboard.Entry> published = new ArrayList<>();
+    // -1 until the first update, so the first subscribers get a top even if empty
+    private int publishedTotal = -1;
+    private long publishedVersion = -1;
+    private long numberUpdates = 0;
+
+    /**
+     * Constructor for the LeaderboardFeed class.
+     * @param leaderboard The leaderboard followed.
+     * @param topSize The number of players pushed to the subscribers.
+     * @param intervalMillis The minimum time between two updates, in milliseconds.
+     */
+    public LeaderboardFeed(Leaderboard leaderboard, int topSize, long intervalMillis)
+    {
+        this.leaderboard = leaderboard;
+        this.topSize = topSize;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Start the background thread pushing the changes of the top.
+     * @implNote Coalesced: every win of an interval is pushed as one update, and nothing is
+     * pushed while the leaderboard does not change.
+     */
+    public void start()
+    {
+        update();
+        Thread feeder = new Thread(() ->
+        {
+            while(true)
+            {
+                try
+                {
+                    Thread.sleep(intervalMillis);
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                update();
+            }
+        }, "leaderboard-feed");
+        feeder.setDaemon(true);
+        feeder.start();
+    }
+
+    /**
+     * Add a subscriber, it gets the top of the leaderboard then its changes.
+     * @param socket The socket of the subscriber, after the WebSocket handshake.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void subscribe(Socket socket) throws IOException
+    {
+        channel.subscribe(socket, List.of());
+    }
+
+    /**
+     * Push the rows of the top that changed since the last update, if any.
+     */
+    private void update()
+    {
+        // Read before the top, a change during the read is pushed next time
+        long version = leaderboard.getVersion();
+        if(version == publishedVersion)
+        {
+            return;
+        }
+        List<Leaderboard.Entry> top = leaderboard.top(topSize);
+        int total = leaderboard.size();
+        List<Integer> changed = new ArrayList<>();
+        for(int i = 0; i < top.size(); i++)
+        {
+            if(i >= published.size() || !top.get(i).equals(published.get(i)))
+            {
+                changed.add(i);
+            }
+        }
+        publishedVersion = version;
+        if(changed.isEmpty() && top.size() == published.size() && total == publishedTotal)
+        {
+            return;
+        }
+        published = top;
+        publishedTotal = total;
+        numberUpdates++;
+        channel.publishFrame(toJson(top, changed, total).toFrame(), toJson(top, null, total).toFrame());
+    }
+
+    /**
+     * Generate the JSON message of the top, whole or only its changed rows.
+     * @param top The top of the leaderboard, fastest first.
+     * @param changed The indexes of the changed rows, or null for the whole top.
+     * @param total The number of players in the leaderboard.
+     * @return The message, a LEADERBOARD like the pages of the leaderboard or a LEADERBOARD_DIFF
+     * whose rows replace the ones of the same rank, the top being cut to its size.
+     */
+    private static JsonWriter toJson(List<Leaderboard.Entry> top, List<Integer> changed, int total)
+    {
+        int count = changed != null ? changed.size() : top.size();
+        JsonWriter json = new JsonWriter(64 + count * 64).beginObject();
+        json.name("offset").value(0);
+        json.name("total").value(total);
+        json.name("size").value(top.size());
+        json.name(changed != null ? "LEADERBOARD_DIFF" : "LEADERBOARD").beginArray();
+        for(int i = 0; i < count; i++)
+        {
+            int index = changed != null ? changed.get(i) : i;
+            Leaderboard.Entry entry = top.get(index);
+            json.beginObject();
+            json.name("rank").value(index + 1);
+            json.name("name").value(entry.name());
+            json.name("time").value(entry.time());
+            json.endObject();
+        }
+        json.endArray();
+        return json.endObject();
+    }
+
+    /**
+     * Get the feed counters.
+     * @return The number of updates pushed and the counters of the channel.
+     * @implNote Read without synchronization, for the logs only.
+     */
+    public String getStatistics()
+    {
+        return "updates: " + numberUpdates + ", " + channel.getStatistics();
+    }
+}
@@ -1,9 +1,11 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 import java.awt.image.*;
 
 import javax.imageio.ImageIO;
@@ -11,18 +13,59 @@ import javax.imageio.ImageIO;
 public class MinesweeperServer
 {
     public static final short MSG_SIZE = 1024;
-    public static final short SERVER_PORT = 8013;
-    private static final String QUIT_COMMAND = "QUIT";
-    private static final String TRY_COMMAND = "TRY";
-    private static final String FLAG_COMMAND = "FLAG";
-    private static final String CHEAT_COMMAND = "CHEAT";
+    // Several nodes may share a machine and their session store, each on its own port
+    public static final int SERVER_PORT = Integer.getInteger("minesweeper.port", 8013);
+    private static final String SPECTATE_COMMAND = "SPECTATE";
+    // Invalid commands a connection may send in a row, then one more per interval
+    private static final int ERROR_BURST = Integer.getInteger("minesweeper.errors.burst", 10);
+    private static final long ERROR_INTERVAL = Long.getLong("minesweeper.errors.interval", 1000);
+    // Longest part of an invalid command sent back in its error
+    private static final int MAX_ERROR_COMMAND_LENGTH = 64;
+    // WebSocket close status of a client closed for its errors
+    private static final int POLICY_VIOLATION = 1008;
+    private static final String SPECTATE_PATH = "/spectate/";
+    private static final String LEADERBOARD_TOP_PATH = "/leaderboard/top";
+    private static final String LEADERBOARD_RANK_PATH = "/leaderboard/rank";
+    private static final String LEADERBOARD_LIVE_PATH = "/leaderboard/live";
+    // Players per page of the leaderboard, and at most per request
+    private static final int LEADERBOARD_PAGE_SIZE = 20;
+    private static final int MAX_LEADERBOARD_PAGE_SIZE = 100;
+    // Minimum time between two pushes of the top of the leaderboard, in milliseconds
+    private static final long LEADERBOARD_PUSH_INTERVAL = Long.getLong("minesweeper.leaderboard.interval", 1000);
     private static final short GRID_SIZE = 7;
-    private static final int INACTIVE_TIME_OUT = 600000;
+    // Lifetime of an inactive session in milliseconds, also the socket read timeout
+    private static final int INACTIVE_TIME_OUT = Integer.getInteger("minesweeper.session.ttl", 600000);
 
-    // Map to store the players' names and their scores (will be used for the leaderboard)
-    private static Map<String, Long> playersClassement = new ConcurrentHashMap<>();
-    // Map to store the active sessions (cookie ID, session info)
-    private static Map<String, SessionInfo> activeSessions = new ConcurrentHashMap<>();
+    // Players' names and their scores, kept sorted for the leaderboard
+    private static Rankings rankings = new Rankings();
+    private static Leaderboard playersClassement = rankings.getAllTime();
+    // Leaderboard message framed once per version of the leaderboard, shared by all the connections
+    private static volatile CachedFrame leaderboardFrame = new CachedFrame(-1, null);
+    // Map to store the sessions in use on this node (cookie ID, session info)
+    private static Map<SessionId, SessionInfo> activeSessions = new ConcurrentHashMap<>();
+    // Every session, serialized, written after each change: off the heap of this node by default,
+    // or shared with the other nodes of the machine
+    private static SessionStore sessionStore = createSessionStore();
+    // Removes the expired sessions in the background
+    private static SessionExpiry sessionExpiry = new SessionExpiry(activeSessions, sessionStore, INACTIVE_TIME_OUT);
+    // Pushes the changes of the first page of the leaderboard to the open leaderboard pages
+    private static LeaderboardFeed leaderboardFeed = new LeaderboardFeed(playersClassement,
+        LEADERBOARD_PAGE_SIZE, LEADERBOARD_PUSH_INTERVAL);
+    // Keeps the sessions and the leaderboard across restarts
+    private static SessionJournal sessionJournal = new SessionJournal(
+        Paths.get(System.getProperty("minesweeper.journal", "sessions.journal")), 
+        sessionStore, playersClassement, INACTIVE_TIME_OUT);
+    // Keeps the leaderboard across restarts, written in the background
+    private static ResultsLog resultsLog = new ResultsLog(
+        Paths.get(System.getProperty("minesweeper.results", "results.log")), rankings);
+    // Spectated sessions and their channel, the channel outlives the connections of the player
+    private static Map<SessionId, BroadcastChannel> sessionChannels = new ConcurrentHashMap<>();
+    // Same channels, by the token of their spectate URL
+    private static Map<SessionId, BroadcastChannel> spectateChannels = new ConcurrentHashMap<>();
+    // Image messages, read once
+    private static List<String> imageMessages;
+    // Same messages framed once for the spectators, only used by the accepting thread
+    private static List<byte[]> imageFrames;
 
     private static int maxThreads = 3;
 
@@ -47,6 +90,22 @@ public class MinesweeperServer
             System.exit(1);
         }
 
+        // Keep ready boards for the first moves
+        BoardPool.register(new BoardPool.Key(GRID_SIZE, GRID_SIZE, false));
+        BoardPool.register(new BoardPool.Key(GRID_SIZE, GRID_SIZE, true));
+
+        // Resume the games of the previous run, or of the other nodes, as idle sessions
+        sessionJournal.recover();
+        // After the journal, whose older versions held the scores
+        resultsLog.recover();
+        sessionStore.forEach((sessionId, lastActivity, snapshot) -> 
+            sessionExpiry.schedule(sessionId, lastActivity + INACTIVE_TIME_OUT));
+        sessionJournal.start();
+        resultsLog.start();
+        leaderboardFeed.start();
+        sessionExpiry.onExpiry(MinesweeperServer::closeSpectatorChannel);
+        sessionExpiry.start();
+
         // Start the server
         try(ServerSocket serverSocket = new ServerSocket(SERVER_PORT))
         {
@@ -62,6 +121,30 @@ public class MinesweeperServer
         }
     }
 
+    /**
+     * Create the session store chosen by the minesweeper.store.shared property.
+     * @return The store shared through the file named by the property, or the off-heap store
+     * of this node if it is not set.
+     */
+    private static SessionStore createSessionStore()
+    {
+        String sharedPath = System.getProperty("minesweeper.store.shared");
+        if (sharedPath == null)
+        {
+            return new OffHeapSessionStore();
+        }
+        try
+        {
+            return new SharedSessionStore(Paths.get(sharedPath));
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot open the session store " + sharedPath + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
     /**
      * Handle the connection between the server and the client.
      * @param server The MinesweeperServer object.
@@ -89,7 +172,7 @@ public class MinesweeperServer
                 else if(line != null && line.startsWith("GET /play.html HTTP/1.1"))
                 {
                     System.out.println("Sending dynamic play.html page to client " + clientSocket.getPort());
-                    sendPlayHtmlPage(clientSocket);
+                    sendPlayHtmlPage(clientSocket, null);
                     return;
                 }
                 // Send the dynamic leaderboard.html page to the client if requested
@@ -99,6 +182,17 @@ public class MinesweeperServer
                     sendLeaderboardHtmlPage(clientSocket);
                     return;
                 }
+                // Send a page of the leaderboard, or the rank of a player
+                else if(line != null && line.startsWith("GET " + LEADERBOARD_TOP_PATH))
+                {
+                    sendLeaderboardPage(clientSocket, line);
+                    return;
+                }
+                else if(line != null && line.startsWith("GET " + LEADERBOARD_RANK_PATH))
+                {
+                    sendLeaderboardRank(clientSocket, line);
+                    return;
+                }
                 // Handle the name submission from the client
                 else if (line != null && line.startsWith("POST /submitName HTTP/1.1")) 
                 {
@@ -163,7 +257,8 @@ public class MinesweeperServer
                 {
                     boolean isWebSocketRequest = false;
                     String clientKey = null;
-                    String sessionId = null;
+                    SessionId sessionId = null;
+                    String requestLine = line;
 
                     // Read the headers from the client
                     while ((line = reader.readLine()) != null && !line.isEmpty())
@@ -186,11 +281,48 @@ public class MinesweeperServer
                             {
                                 if (cookie.trim().startsWith("SESSID="))
                                 {
-                                    sessionId = cookie.split("=")[1];
+                                    sessionId = SessionId.parse(cookie.trim().substring("SESSID=".length()));
                                 }
                             }
                         }
                     }
+                    // Spectators of a game, the page or its read-only WebSocket
+                    if (requestLine != null && requestLine.startsWith("GET " + SPECTATE_PATH))
+                    {
+                        String path = requestLine.split(" ")[1];
+                        SessionId token = SessionId.parse(path.substring(SPECTATE_PATH.length()));
+                        BroadcastChannel channel = token != null ? spectateChannels.get(token) : null;
+                        if (channel == null)
+                        {
+                            sendCode404(clientSocket);
+                        }
+                        else if (isWebSocketRequest && clientKey != null)
+                        {
+                            handleSpectatorConnection(clientSocket, clientKey, channel);
+                        }
+                        else
+                        {
+                            System.out.println("Sending spectate page to client " + clientSocket.getPort());
+                            sendPlayHtmlPage(clientSocket, path);
+                        }
+                        return;
+                    }
+                    // Live updates of the leaderboard page
+                    if (requestLine != null && requestLine.startsWith("GET " + LEADERBOARD_LIVE_PATH))
+                    {
+                        if (isWebSocketRequest && clientKey != null)
+                        {
+                            acceptWebSocket(clientSocket, clientKey);
+                            leaderboardFeed.subscribe(clientSocket);
+                            System.out.println("Leaderboard subscriber " + clientSocket.getPort() + ", "
+                                + leaderboardFeed.getStatistics());
+                        }
+                        else
+                        {
+                            sendCode400(clientSocket);
+                        }
+                        return;
+                    }
                     // If websocket request, start the handshake
                     if (isWebSocketRequest)
                     {
@@ -209,15 +341,7 @@ public class MinesweeperServer
                     // Send a 404 code if the page is not found
                     else
                     {
-                        System.out.println("Page not found");
-                        OutputStream output = clientSocket.getOutputStream();
-                        String httpResponse = "HTTP/1.1 404 Not Found\r\n" +
-                                            "Content-Type: text/plain\r\n" +
-                                            "Connection: close\r\n\r\n" +
-                                            "The requested resource was not found on this server.\r\n";
-                        output.write(httpResponse.getBytes("UTF-8"));
-                        output.flush();
-                        clientSocket.close();
+                        sendCode404(clientSocket);
                         return;
                     }
                 }
@@ -236,7 +360,7 @@ public class MinesweeperServer
      * @param webSocket The WebSocket object.
      * @throws IOException If an I/O error occurs.
      */
-    public static void processClientRequests(Socket clientSocket, String key, String session) 
+    public static void processClientRequests(Socket clientSocket, String key, SessionId session) 
         throws IOException, NoSuchAlgorithmException
     {  
         // ============ Establish the handshake with the client ===============
@@ -258,18 +382,40 @@ public class MinesweeperServer
         // Send the images to the client
         SendImages(webSocket);
         // Read the input from the client
-        String receivedMessage = null;
+        // Reused for every message of the connection
+        Command command = new Command();
+        ErrorBudget errorBudget = new ErrorBudget(ERROR_BURST, ERROR_INTERVAL, System.currentTimeMillis());
+        // Boards of the other connections of the session, rendered by a command and sent after it
+        List<BoardUpdate> pendingBoards = new ArrayList<>();
         // Set the timeout for the client socket
         clientSocket.setSoTimeout(INACTIVE_TIME_OUT);
-        // Get the grid object from the active sessions map (should be initialized in the handshake)
-        Grid grid = activeSessions.get(session).getCurrentGame();
-        webSocket.send(grid.convertGridToProtocol(false));
-        // Send the leaderboard to the client (should be read for leaderboard.html)
-        webSocket.send(generateJsonClassement(playersClassement));
+        // Window of the board shown to this connection
+        Viewport viewport = new Viewport(-Viewport.DEFAULT_SIZE / 2, -Viewport.DEFAULT_SIZE / 2, 
+            Viewport.DEFAULT_SIZE, Viewport.DEFAULT_SIZE);
+        SessionInfo.Connection connection = new SessionInfo.Connection(webSocket, viewport);
+        // Get the session from the active sessions map (should be initialized in the handshake),
+        // its grid is only created on the first move
+        SessionInfo sessionInfo = acquireSession(session, connection);
+        if(sessionInfo == null)
+        {
+            System.out.println("Session " + session + " expired during the handshake.");
+            clientSocket.close();
+            return;
+        }
+        // The commands of a session are serialized on the session, the sessions run in parallel,
+        // the board is sent once the session is unlocked
+        BoardUpdate firstBoard;
+        synchronized(sessionInfo)
+        {
+            firstBoard = renderBoardUpdate(sessionInfo, connection);
+        }
+        webSocket.sendBoardFrame(firstBoard.frame(), firstBoard.sequence());
+        // Send the first page of the leaderboard to the client
+        webSocket.sendFrame(getLeaderboardFrame());
 
-        Long initialTimer = System.currentTimeMillis();
+        // Timer must start here, a resumed game keeps its timer
+        long initialTimer = sessionInfo.startTimer();
 
-        // Timer must start here
         try
         {
             // Loop until the client sends a "QUIT" command
@@ -279,28 +425,78 @@ public class MinesweeperServer
                 try
                 { 
                     // Receive the message from the client
-                    receivedMessage = webSocket.receive();
-                    if (receivedMessage == null || receivedMessage.isEmpty())
+                    ByteBuffer receivedMessage = webSocket.receiveMessage();
+                    // Any message keeps the session alive
+                    sessionInfo.touch();
+                    if (!receivedMessage.hasRemaining())
                     {
                         System.out.println("empty message");
                         continue;
                     }
 
-                    processCommand(receivedMessage, grid, clientSocket, webSocket);
-                    // Check if the game is over, if so, remove the session
-                    if(grid.isWin() || grid.isLose())
+                    synchronized(sessionInfo)
                     {
-                        Long endTimer = System.currentTimeMillis() - initialTimer;
-                        // Add the player to the leaderboard if win and remove the session
-                        if(grid.isWin())
+                        command.parse(receivedMessage);
+                        boolean changed = processCommand(command, session, sessionInfo, viewport, clientSocket, webSocket);
+                        if(changed)
+                        {
+                            renderBroadcast(sessionInfo, connection, pendingBoards);
+                            publishSpectatorBoard(session, sessionInfo, viewport);
+                        }
+                        // An invalid command changed nothing, the connection stays open unless it keeps failing
+                        if(command.getError() != Command.ErrorCode.NONE)
                         {
-                            String playerName = activeSessions.get(session).getPlayerName();
-                            playersClassement.put(playerName, endTimer);
-                            System.out.println(playerName + " finished in " + endTimer);
+                            if(!errorBudget.spend(System.currentTimeMillis()))
+                            {
+                                System.out.println("Client " + clientSocket.getPort() + " sent too many invalid commands.");
+                                webSocket.sendClose(POLICY_VIOLATION);
+                                break;
+                            }
+                            continue;
+                        }
+                        if(!changed)
+                        {
+                            // Nothing to save or journal, only the activity is stored so that no
+                            // node expires the session
+                            sessionStore.touch(session, sessionInfo.getLastActivity());
+                            continue;
+                        }
+                        // Check if the game is over, if so, remove the session
+                        if(!sessionInfo.isGameOver())
+                        {
+                            if(saveSession(session, sessionInfo) == 0)
+                            {
+                                // Another node changed the session first, its state replaced this move
+                                renderBroadcast(sessionInfo, null, pendingBoards);
+                                publishSpectatorBoard(session, sessionInfo, viewport);
+                                continue;
+                            }
+                        }
+                        else if(sessionInfo.finish())
+                        {
+                            Grid grid = sessionInfo.getCurrentGame();
+                            Long endTimer = System.currentTimeMillis() - initialTimer;
+                            // Add the player to the leaderboard if win and remove the session
+                            if(grid != null && grid.isWin())
+                            {
+                                String playerName = sessionInfo.getPlayerName();
+                                Leaderboard.Entry result = new Leaderboard.Entry(playerName, endTimer, 
+                                    sessionInfo.getGridSize(), sessionInfo.getMode(), System.currentTimeMillis());
+                                // Only a best time on some board is worth keeping
+                                if(rankings.record(result))
+                                {
+                                    resultsLog.append(result);
+                                }
+                                System.out.println(playerName + " finished in " + endTimer);
+                            }
+                            activeSessions.remove(session, sessionInfo);
+                            sessionStore.expire(session, Long.MAX_VALUE);
+                            sessionJournal.remove(session);
+                            // The spectators keep the final board
+                            closeSpectatorChannel(session);
+                            System.out.println("Game over for client " 
+                                + clientSocket.getPort() + " session removed.");
                         }
-                        activeSessions.remove(session);
-                        System.out.println("Game over for client " 
-                            + clientSocket.getPort() + " session removed.");
                     }
                 }
                 catch (IOException e) 
@@ -308,6 +504,11 @@ public class MinesweeperServer
                     System.out.println("Client " + clientSocket.getPort() + " timed out.");
                     break;
                 }
+                finally
+                {
+                    // A slow connection of the session no longer holds its lock
+                    sendBoards(pendingBoards);
+                }
             }
         }
         finally
@@ -315,45 +516,233 @@ public class MinesweeperServer
             // Close the client socket
             System.out.println("Client " + clientSocket.getPort() + " disconnected.");
             clientSocket.close();
+            releaseSession(session, connection);
         }
     }
 
     /**
-     * Generate the JSON string for the leaderboard.
-     * @param output The output stream to the client.
-     * @param content The content to send to the client.
+     * A message framed for a given version of its source.
+     * @param version The version of the source.
+     * @param frame The WebSocket frame.
+     */
+    private record CachedFrame(long version, byte[] frame) {}
+
+    /**
+     * A board rendered for a connection while the session was locked, sent after.
+     * @param webSocket The WebSocket of the connection.
+     * @param frame The board, framed, a copy of the grid at the time it was rendered.
+     * @param sequence The order of the board in the session, a stale board is not sent.
+     */
+    private record BoardUpdate(WebSocket webSocket, byte[] frame, long sequence) {}
+
+    /**
+     * Get the first page of the leaderboard, framed.
+     * @return The frame, built again only if the leaderboard changed since the last call.
+     * @implNote Wins between two connections are folded into a single rebuild.
+     */
+    private static byte[] getLeaderboardFrame()
+    {
+        CachedFrame cached = leaderboardFrame;
+        long version = playersClassement.getVersion();
+        if (cached.version() == version)
+        {
+            return cached.frame();
+        }
+        synchronized (playersClassement)
+        {
+            cached = leaderboardFrame;
+            if (cached.version() != version)
+            {
+                // Read after the version, a change during the rebuild triggers the next one
+                cached = new CachedFrame(version, generateJsonClassement(
+                    playersClassement.getPage(0, LEADERBOARD_PAGE_SIZE), 0, playersClassement.size()).toFrame());
+                leaderboardFrame = cached;
+            }
+            return cached.frame();
+        }
+    }
+
+    /**
+     * Generate the JSON message of a page of the leaderboard.
+     * @param page The players of the page, fastest first.
+     * @param offset The rank of the first player of the page, 0 for the fastest.
+     * @param total The number of players in the leaderboard.
+     * @return The message, to be sent as is or framed.
+     */
+    private static JsonWriter generateJsonClassement(List<Leaderboard.Entry> page, int offset, int total) 
+    {
+        // The page is already sorted by time
+        JsonWriter json = new JsonWriter(64 + page.size() * 64);
+        json.beginObject();
+        json.name("offset").value(offset);
+        json.name("total").value(total);
+        json.name("LEADERBOARD").beginArray();
+        int rank = offset;
+        for (Leaderboard.Entry entry : page) {
+            json.beginObject();
+            json.name("rank").value(++rank);
+            json.name("name").value(entry.name());
+            json.name("time").value(entry.time());
+            json.endObject();
+        }
+        json.endArray();
+        return json.endObject();
+    }
+
+    /**
+     * Get the leaderboard asked by a request, all time unless window=day|week or size= is given.
+     * @param requestLine The request line.
+     * @return The leaderboard, or null if nobody won on the asked size.
+     * @throws IllegalArgumentException If the parameters do not name a leaderboard.
+     */
+    private static Leaderboard getRequestedLeaderboard(String requestLine)
+    {
+        String window = getQueryParameter(requestLine, "window");
+        String size = getQueryParameter(requestLine, "size");
+        if (window != null && size != null)
+        {
+            throw new IllegalArgumentException("Either a window or a size");
+        }
+        if (size != null)
+        {
+            return rankings.getBySize(Short.parseShort(size));
+        }
+        if (window == null || window.equals("all"))
+        {
+            return playersClassement;
+        }
+        switch (window)
+        {
+            case "day":
+                return rankings.getDaily(System.currentTimeMillis());
+            case "week":
+                return rankings.getWeekly(System.currentTimeMillis());
+            default:
+                throw new IllegalArgumentException("Unknown window " + window);
+        }
+    }
+
+    /**
+     * Send a page of the leaderboard, GET /leaderboard/top?offset=&limit=, see getRequestedLeaderboard.
+     * @param clientSocket The client socket.
+     * @param requestLine The request line.
      * @throws IOException If an I/O error occurs.
      */
-    private static String generateJsonClassement(Map<String, Long> playersClassement) 
+    private static void sendLeaderboardPage(Socket clientSocket, String requestLine) throws IOException
     {
-        // First, we need to sort the playersClassement map by value
-        Map<String, Long> sortedPlayersClassement = playersClassement.entrySet()
-            .stream()
-            .sorted(Map.Entry.comparingByValue())
-            .collect(Collectors.toMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue,
-                (e1, e2) -> e1,
-                LinkedHashMap::new
-            ));
-    
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"LEADERBOARD\": [\n");
-        for (Map.Entry<String, Long> entry : sortedPlayersClassement.entrySet()) {
-            json.append("    {\n");
-            json.append("      \"name\": \"").append(entry.getKey()).append("\",\n");
-            json.append("      \"time\": ").append(entry.getValue()).append("\n");
-            json.append("    },\n");
-        }
-        // Remove the last comma
-        if (!sortedPlayersClassement.isEmpty()) {
-            json.setLength(json.length() - 2);
-            json.append("\n");
-        }
-        json.append("  ]\n");
-        json.append("}\n");
-        return json.toString();
+        Leaderboard leaderboard;
+        int offset;
+        int limit;
+        try
+        {
+            leaderboard = getRequestedLeaderboard(requestLine);
+            String value = getQueryParameter(requestLine, "offset");
+            offset = value != null ? Integer.parseInt(value) : 0;
+            value = getQueryParameter(requestLine, "limit");
+            limit = value != null ? Integer.parseInt(value) : LEADERBOARD_PAGE_SIZE;
+        }
+        catch (IllegalArgumentException e)
+        {
+            sendCode400(clientSocket);
+            return;
+        }
+        if (offset < 0 || limit <= 0)
+        {
+            sendCode400(clientSocket);
+            return;
+        }
+        limit = Math.min(limit, MAX_LEADERBOARD_PAGE_SIZE);
+        sendJsonResponse(clientSocket, leaderboard != null
+            ? generateJsonClassement(leaderboard.getPage(offset, limit), offset, leaderboard.size())
+            : generateJsonClassement(List.of(), offset, 0));
+    }
+
+    /**
+     * Send the rank of a player, GET /leaderboard/rank?name=, see getRequestedLeaderboard.
+     * @param clientSocket The client socket.
+     * @param requestLine The request line.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void sendLeaderboardRank(Socket clientSocket, String requestLine) throws IOException
+    {
+        String name = getQueryParameter(requestLine, "name");
+        Leaderboard leaderboard;
+        try
+        {
+            leaderboard = getRequestedLeaderboard(requestLine);
+        }
+        catch (IllegalArgumentException e)
+        {
+            leaderboard = null;
+            name = null;
+        }
+        if (name == null)
+        {
+            sendCode400(clientSocket);
+            return;
+        }
+        // The name is not echoed, the client already knows it
+        int rank = leaderboard != null ? leaderboard.getRank(name) : -1;
+        Long time = leaderboard != null ? leaderboard.getTime(name) : null;
+        JsonWriter json = new JsonWriter().beginObject();
+        json.name("rank").value(rank);
+        json.name("time").value(rank > 0 && time != null ? time : -1);
+        json.name("total").value(leaderboard != null ? leaderboard.size() : 0);
+        sendJsonResponse(clientSocket, json.endObject());
+    }
+
+    /**
+     * Get a parameter of the query string of a request.
+     * @param requestLine The request line.
+     * @param name The name of the parameter.
+     * @return The decoded value, or null if the parameter is missing.
+     */
+    private static String getQueryParameter(String requestLine, String name)
+    {
+        String[] parts = requestLine.split(" ");
+        int query = parts.length > 1 ? parts[1].indexOf('?') : -1;
+        if (query < 0)
+        {
+            return null;
+        }
+        for (String param : parts[1].substring(query + 1).split("&"))
+        {
+            int equals = param.indexOf('=');
+            if (equals > 0 && param.substring(0, equals).equals(name))
+            {
+                try
+                {
+                    return URLDecoder.decode(param.substring(equals + 1), StandardCharsets.UTF_8);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Send a JSON response and close the connection.
+     * @param clientSocket The client socket.
+     * @param json The JSON body.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void sendJsonResponse(Socket clientSocket, JsonWriter json) throws IOException
+    {
+        ByteBuffer body = json.toByteBuffer();
+        OutputStream output = clientSocket.getOutputStream();
+        String httpResponse = "HTTP/1.1 200 OK\r\n" +
+                              "Content-Type: application/json; charset=UTF-8\r\n" +
+                              "Content-Length: " + body.remaining() + "\r\n" +
+                              "Cache-Control: no-cache\r\n" +
+                              "Connection: close\r\n" +
+                              "\r\n";
+        output.write(httpResponse.getBytes(StandardCharsets.UTF_8));
+        output.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        output.flush();
+        clientSocket.close();
     }
 
     /**
@@ -362,6 +751,20 @@ public class MinesweeperServer
      * @throws IOException If an I/O error occurs.
      */
     private static void SendImages(WebSocket webSocket) throws IOException {
+        for (String message : getImageMessages()) {
+            webSocket.send(message);
+        }
+    }
+
+    /**
+     * Get the image messages, the images are only read and encoded by the first call.
+     * @return The messages, "Bomb:" or "Flag:" followed by the base64 PNG.
+     */
+    private static synchronized List<String> getImageMessages() {
+        if (imageMessages != null) {
+            return imageMessages;
+        }
+        List<String> messages = new ArrayList<>();
         try {
             // Load Bomb Image
             File bombFile = new File("bomb.png");
@@ -369,7 +772,7 @@ public class MinesweeperServer
                 final ByteArrayOutputStream os = new ByteArrayOutputStream();
                 RenderedImage image = ImageIO.read(bombFile);
                 ImageIO.write(image, "png", os);
-                webSocket.send("Bomb:" + Base64.getEncoder().encodeToString(os.toByteArray()));
+                messages.add("Bomb:" + Base64.getEncoder().encodeToString(os.toByteArray()));
             } else {
                 System.out.println("Bomb image not found.");
             }
@@ -380,284 +783,471 @@ public class MinesweeperServer
                 final ByteArrayOutputStream os = new ByteArrayOutputStream();
                 RenderedImage image = ImageIO.read(flagFile);
                 ImageIO.write(image, "png", os);
-                webSocket.send("Flag:" + Base64.getEncoder().encodeToString(os.toByteArray()));
+                messages.add("Flag:" + Base64.getEncoder().encodeToString(os.toByteArray()));
             } else {
                 System.out.println("Flag image not found.");
             }
         } catch (IOException e) {
-            System.err.println("Error reading or sending images: " + e.getMessage());
+            System.err.println("Error reading images: " + e.getMessage());
+            // Read again by the next client
+            return messages;
         }
+        imageMessages = messages;
+        return messages;
     }    
     
     /**
      * Process the command from the client.
-     * @param receivedMessage The message received from the client.
-     * @param grid The grid object.
-     * @param outputServer The output stream to the client.
+     * @param command The command received from the client, parsed.
+     * @param session The session ID of the client.
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
      * @param clientSocket The client socket.
+     * @return True if the board changed, to be sent to the other connections.
      * @throws IOException If an I/O error occurs.
      */
-    private static void processCommand(String receivedMessage, 
-        Grid grid, Socket clientSocket, WebSocket webSocket) throws IOException
+    private static boolean processCommand(Command command, SessionId session,
+        SessionInfo sessionInfo, Viewport viewport, Socket clientSocket, WebSocket webSocket) throws IOException
     {
-        // Verify the command from the client
-        if(isQuitCommand(receivedMessage))
+        if(command.getError() != Command.ErrorCode.NONE)
         {
-            handleQuitCommand(clientSocket);
-        } 
-        else if(isCheatCommand(receivedMessage))
-        {
-            handleCheatCommand(grid, webSocket);
-        } 
-        else if(isFlagCommand(receivedMessage))
+            handleWrongCommand(command, webSocket);
+            return false;
+        }
+        switch(command.getType())
         {
-            handleFlagCommand(receivedMessage, grid, webSocket, clientSocket);
-        } 
-        else if(isTryCommand(receivedMessage))
+            case QUIT:
+                handleQuitCommand(clientSocket);
+                return false;
+            case CHEAT:
+                handleCheatCommand(sessionInfo, viewport, webSocket);
+                return false;
+            case SPECTATE:
+                handleSpectateCommand(session, sessionInfo, viewport, webSocket);
+                return false;
+            case MODE:
+                return handleModeCommand(command, sessionInfo, viewport, webSocket);
+            case VIEW:
+                handleViewCommand(command, sessionInfo, viewport, webSocket);
+                return false;
+            default:
+                break;
+        }
+        if(sessionInfo.getMode() == SessionInfo.Mode.INFINITE)
         {
-            handleTryCommand(receivedMessage, grid, webSocket, clientSocket);
-        } 
-        else 
+            return handleInfiniteMoveCommand(command, sessionInfo, viewport, webSocket);
+        }
+        switch(command.getType())
         {
-            handleWrongCommand(clientSocket);
-            System.out.println("Invalid input: "+receivedMessage);
+            case FLAG:
+                return handleFlagCommand(command, sessionInfo, viewport, webSocket);
+            case TRY:
+                return handleTryCommand(command, sessionInfo, viewport, webSocket);
+            default:
+                return handleChordCommand(command, sessionInfo, viewport, webSocket);
         }
     }
 
     /**
-     * Handle the "QUIT" command from the client.
-     * @param clientSocket The client socket.
-     * @param outputServer The output stream to the client.
-     * @throws IOException If an I/O error occurs.
+     * Render the board for the other connections of the session, each through its own window.
+     * @param sessionInfo The session, locked by the caller.
+     * @param origin The connection that changed the board, already answered.
+     * @param updates The boards to send once the session is unlocked, added to.
      */
-    private static void handleQuitCommand(Socket clientSocket)
-        throws IOException
+    private static void renderBroadcast(SessionInfo sessionInfo, SessionInfo.Connection origin,
+        List<BoardUpdate> updates)
     {
-        printDisconnectedMessage(clientSocket);
-        clientSocket.close();
+        for(SessionInfo.Connection connection : sessionInfo.getConnections())
+        {
+            if(connection != origin)
+            {
+                updates.add(renderBoardUpdate(sessionInfo, connection));
+            }
+        }
     }
-    
+
     /**
-     * Handle the "CHEAT" command from the client.
-     * @param server The MinesweeperServer object.
-     * @param outputServer The output stream to the client.
-     * @throws IOException If an I/O error occurs.
+     * Render the board for a connection, to be sent once the session is unlocked.
+     * @param sessionInfo The session, locked by the caller.
+     * @param connection The connection.
+     * @return The board, framed.
      */
-    private static void handleCheatCommand(Grid grid, WebSocket webSocket)
-        throws IOException
+    private static BoardUpdate renderBoardUpdate(SessionInfo sessionInfo, SessionInfo.Connection connection)
     {
-        webSocket.send(grid.revealAllCells());
+        // Framing copies the board, the grid may change before it is sent
+        return new BoardUpdate(connection.webSocket(), WebSocket.frame(renderBoard(sessionInfo,
+            connection.viewport())), sessionInfo.nextBoardSequence());
     }
-    
+
     /**
-     * Handle the "FLAG" command from the client.
-     * @param outputServer The output stream to the client.
-     * @throws IOException If an I/O error occurs.
+     * Send the boards rendered for the other connections of a session, then forget them.
+     * @param updates The boards, sent without the session lock.
      */
-    private static void handleFlagCommand(String input, Grid grid, WebSocket webSocket, Socket clientSocket) 
-        throws IOException
+    private static void sendBoards(List<BoardUpdate> updates)
     {
-        // Write the updated grid to the client if the coordinates are valid
-        if(areCorrectCoordinates(grid, input))
+        for(BoardUpdate update : updates)
         {
-            if(!areCoordinatesInRange(input))
+            try
             {
-                sendCode400(clientSocket);
-                return;
+                update.webSocket().sendBoardFrame(update.frame(), update.sequence());
+            }
+            catch(IOException e)
+            {
+                // The connection is closing, its own thread detaches it
+                System.out.println("Board update lost: " + e.getMessage());
             }
-            grid.flagCell(getXCoordinate(input), getYCoordinate(input));
-            webSocket.send(grid.convertGridToProtocol(false));
-        }
-        else
-        {
-            sendCode400(clientSocket);
         }
+        updates.clear();
     }
-    
+
     /**
-     * Handle the "TRY" command from the client.
-     * @param outputServer The output stream to the client.
-     * @throws IOException If an I/O error occurs.
+     * Send the board to the spectators of the session, rendered and framed once for all of them.
+     * @param session The session ID.
+     * @param sessionInfo The session, locked by the caller.
+     * @param viewport The window of the player, followed by the spectators of an infinite board.
      */
-    private static boolean handleTryCommand(String input, Grid grid, WebSocket webSocket, Socket clientSocket) 
-    throws IOException
+    private static void publishSpectatorBoard(SessionId session, SessionInfo sessionInfo, Viewport viewport)
     {
-        boolean isOver = false;
-        // Write the updated grid to the client if the coordinates are valid
-        if(areCorrectCoordinates(grid, input))
+        BroadcastChannel channel = sessionChannels.get(session);
+        if(channel == null)
         {
-            if(!areCoordinatesInRange(input))
-            {
-                sendCode400(clientSocket);
-                return false;
-            }
-            grid.revealCell(getXCoordinate(input), getYCoordinate(input));
-            // Check if the game is over
-            isOver = grid.isWin() || grid.isLose();
-
-            // Send the updated grid to the client (JSON format)
-            webSocket.send(grid.convertGridToProtocol(false));
+            return;
+        }
+        ByteBuffer board;
+        if(sessionInfo.getMode() == SessionInfo.Mode.INFINITE)
+        {
+            board = sessionInfo.getOrCreateInfiniteGame().renderViewport(viewport.getX(), 
+                viewport.getY(), viewport.getWidth(), viewport.getHeight(), false);
         }
         else
         {
-            sendCode400(clientSocket);
-            isOver = false;
+            // No grid means no move was played yet
+            Grid grid = sessionInfo.getCurrentGame();
+            board = grid != null ? grid.convertGridToProtocol(false) 
+                : Grid.unrevealedProtocol(sessionInfo.getGridSize());
         }
-        return isOver;
+        channel.publish(board);
     }
-    
+
     /**
-     * Handle an invalid command from the client.
+     * Close the spectator channel of a session, if any.
+     * @param session The session ID.
+     */
+    private static void closeSpectatorChannel(SessionId session)
+    {
+        BroadcastChannel channel = sessionChannels.remove(session);
+        if(channel != null)
+        {
+            spectateChannels.remove(channel.getToken());
+            channel.close();
+            System.out.println("Spectators of session " + session + " closed, " + channel.getStatistics());
+        }
+    }
+
+    /**
+     * Handle the "QUIT" command from the client.
      * @param clientSocket The client socket.
      * @param outputServer The output stream to the client.
      * @throws IOException If an I/O error occurs.
      */
-    private static void handleWrongCommand(Socket clientSocket) throws IOException
+    private static void handleQuitCommand(Socket clientSocket)
+        throws IOException
     {
-        sendCode400(clientSocket);
-        printWrongInputMessage(clientSocket);
+        printDisconnectedMessage(clientSocket);
+        clientSocket.close();
     }
-
+    
     /**
-     * Print a message to the console indicating that the client sent an invalid command.
-     * @param clientSocket The client socket that sent the invalid command.
-     * @implNote Debugging purposes only.
+     * Send the current board of the session to the client.
+     * @param sessionInfo The session of the client, locked by the caller.
+     * @param viewport The window of the board shown to the client.
+     * @param webSocket The WebSocket object.
+     * @throws IOException If an I/O error occurs.
+     * @implNote Only used to answer the client, the other connections get the board through
+     * renderBroadcast.
      */
-    private static void printWrongInputMessage(Socket clientSocket)
+    private static void sendBoard(SessionInfo sessionInfo, Viewport viewport, WebSocket webSocket)
+        throws IOException
     {
-        System.out.println("Client " + clientSocket.getPort() + " sent an invalid command.");
+        webSocket.sendBoard(renderBoard(sessionInfo, viewport), sessionInfo.nextBoardSequence());
     }
 
     /**
-     * Print a message to the console indicating that the client disconnected.
-     * @param clientSocket The client socket that disconnected.
-     * @implNote Debugging purposes only.
+     * Render the current board of the session for a client.
+     * @param sessionInfo The session of the client, locked by the caller.
+     * @param viewport The window of the board shown to the client.
+     * @return The board, may be a view shared with the grid.
+     * @implNote Only the window is rendered once the client subscribed to one.
      */
-    private static void printDisconnectedMessage(Socket clientSocket)
+    private static ByteBuffer renderBoard(SessionInfo sessionInfo, Viewport viewport)
     {
-        System.out.println("Client " + clientSocket.getPort() + " disconnected.");
+        if(sessionInfo.getMode() == SessionInfo.Mode.INFINITE)
+        {
+            return sessionInfo.getOrCreateInfiniteGame().renderViewport(viewport.getX(), 
+                viewport.getY(), viewport.getWidth(), viewport.getHeight(), false);
+        }
+        Grid grid = sessionInfo.getCurrentGame();
+        if(viewport.isSubscribed())
+        {
+            // No grid means no move was played yet
+            return grid != null 
+                ? grid.renderViewport(viewport.getX(), viewport.getY(), 
+                    viewport.getWidth(), viewport.getHeight(), false) 
+                : Grid.unrevealedViewport(sessionInfo.getGridSize(), viewport.getX(), 
+                    viewport.getY(), viewport.getWidth(), viewport.getHeight());
+        }
+        // No grid means no move was played yet
+        return grid != null ? grid.convertGridToProtocol(false) 
+            : Grid.unrevealedProtocol(sessionInfo.getGridSize());
     }
 
     /**
-     * Check if the input is a TRY command.
-     * @param input The input from the client.
-     * @param outputServer The output stream to the client.
-     * @return True if the input is a valid command, false otherwise.
+     * Handle the "CHEAT" command from the client.
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @param webSocket The WebSocket object.
+     * @throws IOException If an I/O error occurs.
      */
-    private static boolean isTryCommand(String input)
+    private static void handleCheatCommand(SessionInfo sessionInfo, Viewport viewport, WebSocket webSocket)
+        throws IOException
     {
-        return input.startsWith(TRY_COMMAND);
+        if(sessionInfo.getMode() == SessionInfo.Mode.INFINITE)
+        {
+            InfiniteBoard board = sessionInfo.getInfiniteGame();
+            // Only the window shown to the client is revealed
+            webSocket.send(board != null && board.isStarted() 
+                ? board.renderViewport(viewport.getX(), viewport.getY(), 
+                    viewport.getWidth(), viewport.getHeight(), true) 
+                : Grid.notStartedProtocol());
+            return;
+        }
+        Grid grid = sessionInfo.getCurrentGame();
+        if(grid != null && viewport.isSubscribed())
+        {
+            webSocket.send(grid.renderViewport(viewport.getX(), viewport.getY(), 
+                viewport.getWidth(), viewport.getHeight(), true));
+            return;
+        }
+        // No grid means no move was played yet
+        webSocket.send(grid != null ? grid.revealAllCells() : Grid.notStartedProtocol());
     }
 
     /**
-     * Check if the input is a FLAG command.
-     * @param input The input from the client.
-     * @param outputServer The output stream to the client.
-     * @return True if the input is a valid command, false otherwise.
+     * Handle the "SPECTATE" command from the client, the same link is sent for the whole session.
+     * @param session The session ID of the client.
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @param webSocket The WebSocket object.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The reply is "SPECTATE token", the spectators connect to /spectate/token.
      */
-    private static boolean isFlagCommand(String input)
-    {        
-        return input.startsWith(FLAG_COMMAND);
+    private static void handleSpectateCommand(SessionId session, SessionInfo sessionInfo, 
+        Viewport viewport, WebSocket webSocket) throws IOException
+    {
+        BroadcastChannel channel = sessionChannels.computeIfAbsent(session, id ->
+        {
+            BroadcastChannel created = new BroadcastChannel(SessionId.generate());
+            spectateChannels.put(created.getToken(), created);
+            return created;
+        });
+        // The current board is the first one sent to the spectators
+        publishSpectatorBoard(session, sessionInfo, viewport);
+        webSocket.send(SPECTATE_COMMAND + " " + channel.getToken() + "\r\n");
     }
 
     /**
-     * Check if the coordinates from the client are valid.
-     * @param input The input from the client.
-     * @param outputServer The output stream to the client.
-     * @return True if the input is a valid command, false otherwise.
+     * Handle the "VIEW" command from the client.
+     * @param command The command from the client, "VIEW x y width height".
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The following replies only contain the window.
      */
-    private static boolean areCorrectCoordinates(Grid grid, String input)
+    private static void handleViewCommand(Command command, SessionInfo sessionInfo, 
+        Viewport viewport, WebSocket webSocket) throws IOException
     {
-        // Divide the input into three parts: the command,
-        // the x coordinate, and the y coordinate
-        String[] parts = input.split(" ");
-        final int X = 1;
-        final int Y = 2;
-        if (parts.length == 3)
-        {
-            if(!isNumeric(parts[X]) || !isNumeric(parts[Y]))
-            {
-                return false;
-            }
+        if(!viewport.subscribe(command.getX(), command.getY(), command.getArgument(2), command.getArgument(3)))
+        {
+            command.fail(Command.ErrorCode.INVALID_VIEW);
+            handleWrongCommand(command, webSocket);
+            return;
         }
-        else
+        sendBoard(sessionInfo, viewport, webSocket);
+    }
+
+    /**
+     * Handle the "MODE" command from the client.
+     * @param command The command from the client, "MODE CLASSIC", "MODE NO_GUESS" or "MODE INFINITE".
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @return True if the mode changed.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The mode can only be changed before the first move.
+     */
+    private static boolean handleModeCommand(Command command, SessionInfo sessionInfo, 
+        Viewport viewport, WebSocket webSocket) throws IOException
+    {
+        if(!sessionInfo.setMode(command.getMode()))
         {
+            command.fail(Command.ErrorCode.MODE_LOCKED);
+            handleWrongCommand(command, webSocket);
             return false;
         }
+        sendBoard(sessionInfo, viewport, webSocket);
         return true;
     }
 
     /**
-     * Check if the coordinates from the client are in range.
-     * @param input The input from the client.
-     * @return True if the coordinates are in range, false otherwise.
+     * Handle the "TRY", "FLAG" and "CHORD" commands from the client on an infinite board.
+     * @param command The command from the client.
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @return True, a move always applies.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The coordinates are not bounded and may be negative.
      */
-    static private boolean areCoordinatesInRange(String input)
+    private static boolean handleInfiniteMoveCommand(Command command, SessionInfo sessionInfo, 
+        Viewport viewport, WebSocket webSocket) throws IOException
     {
-        int x = getXCoordinate(input);
-        int y = getYCoordinate(input);
-        return x >= 0 && x < GRID_SIZE && y >= 0 && y < GRID_SIZE;
+        int x = command.getX();
+        int y = command.getY();
+        InfiniteBoard board = sessionInfo.getOrCreateInfiniteGame();
+        switch(command.getType())
+        {
+            case TRY:
+                board.revealCell(x, y);
+                break;
+            case CHORD:
+                board.chordCell(x, y);
+                break;
+            default:
+                board.flagCell(x, y);
+        }
+        viewport.scrollTo(x, y);
+        sendBoard(sessionInfo, viewport, webSocket);
+        return true;
     }
-
+    
     /**
-     * Get the x coordinate from the input.
-     * @param input The input from the client.
-     * @return The x coordinate.
-     * @implNote The string must be in the format "TRY x y".
+     * Handle the "FLAG" command from the client.
+     * @param command The command from the client, "FLAG x y".
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @return True if the cell is on the board.
+     * @throws IOException If an I/O error occurs.
      */
-    private static int getXCoordinate(String input)
+    private static boolean handleFlagCommand(Command command, SessionInfo sessionInfo, Viewport viewport, 
+        WebSocket webSocket) throws IOException
     {
-        String[] parts = input.split(" ");
-        return Integer.parseInt(parts[1]);
+        if(!areCoordinatesInRange(command, sessionInfo))
+        {
+            handleWrongCommand(command, webSocket);
+            return false;
+        }
+        // Write the updated grid to the client
+        Grid grid = sessionInfo.getOrCreateGame();
+        grid.flagCell(command.getX(), command.getY());
+        sendBoard(sessionInfo, viewport, webSocket);
+        return true;
     }
-
+    
     /**
-     * Get the y coordinate from the input.
-     * @param input The input from the client.
-     * @return The y coordinate.
-     * @implNote The string must be in the format "TRY x y".
+     * Handle the "TRY" command from the client.
+     * @param command The command from the client, "TRY x y".
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @return True if the cell is on the board.
+     * @throws IOException If an I/O error occurs.
      */
-    private static int getYCoordinate(String input)
+    private static boolean handleTryCommand(Command command, SessionInfo sessionInfo, Viewport viewport, 
+        WebSocket webSocket) throws IOException
     {
-        String[] parts = input.split(" ");
-        return Integer.parseInt(parts[2]);
+        if(!areCoordinatesInRange(command, sessionInfo))
+        {
+            handleWrongCommand(command, webSocket);
+            return false;
+        }
+        Grid grid = sessionInfo.getOrCreateGame();
+        grid.revealCell(command.getX(), command.getY());
+        // Send the updated grid to the client
+        sendBoard(sessionInfo, viewport, webSocket);
+        return true;
     }
-
+    
     /**
-     * Check if the input string is a number.
-     * @param str The input string.
-     * @return True if the input is a number, false otherwise.
+     * Handle the "CHORD" command from the client.
+     * @param command The command from the client, "CHORD x y".
+     * @param sessionInfo The session of the client.
+     * @param viewport The window of the board shown to the client.
+     * @return True if the cell is on the board.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The neighbours are revealed at once and a single reply is sent.
      */
-    private static boolean isNumeric(String str)
+    private static boolean handleChordCommand(Command command, SessionInfo sessionInfo, Viewport viewport, 
+        WebSocket webSocket) throws IOException
     {
-        for(char c : str.toCharArray())
+        if(!areCoordinatesInRange(command, sessionInfo))
         {
-            if(!Character.isDigit(c))
-            {
-                return false;
-            }
+            handleWrongCommand(command, webSocket);
+            return false;
+        }
+        // Nothing is revealed before the first move
+        Grid grid = sessionInfo.getCurrentGame();
+        if(grid != null)
+        {
+            grid.chordCell(command.getX(), command.getY());
         }
+        sendBoard(sessionInfo, viewport, webSocket);
         return true;
     }
 
     /**
-     * Check if the input from the client is a valid command.
-     * @param input The input from the client.
-     * @return True if the input is a valid command, false otherwise.
+     * Check if the cell of a move is on the board of the session.
+     * @param command The move, rejected as OUT_OF_RANGE if not.
+     * @param sessionInfo The session of the client.
+     * @return True if the coordinates are in range, false otherwise.
      */
-    private static boolean isQuitCommand(String input)
+    private static boolean areCoordinatesInRange(Command command, SessionInfo sessionInfo)
     {
-        return input.equals(QUIT_COMMAND);
+        int size = sessionInfo.getGridSize();
+        int x = command.getX();
+        int y = command.getY();
+        return x >= 0 && x < size && y >= 0 && y < size || command.fail(Command.ErrorCode.OUT_OF_RANGE);
     }
 
     /**
-     * Check if the input from the client is a valid command.
-     * @param input The input from the client.
-     * @return True if the input is a valid command, false otherwise.
+     * Handle an invalid command from the client, answered without closing the connection.
+     * @param command The command, with the reason it was rejected.
+     * @param webSocket The WebSocket object.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The reply is {"ERROR": {"code": n, "reason": "NAME", "command": "..."}}, the
+     * command cut to its first characters.
      */
-    private static boolean isCheatCommand(String input)
+    private static void handleWrongCommand(Command command, WebSocket webSocket) throws IOException
     {
-        return input.equals(CHEAT_COMMAND);
+        String input = command.getInput();
+        System.out.println("Invalid command (" + command.getError() + "): " + input);
+        if(input.length() > MAX_ERROR_COMMAND_LENGTH)
+        {
+            input = input.substring(0, MAX_ERROR_COMMAND_LENGTH);
+        }
+        JsonWriter json = new JsonWriter().beginObject();
+        json.name("ERROR").beginObject();
+        json.name("code").value(command.getError().getCode());
+        json.name("reason").value(command.getError().name());
+        json.name("command").value(input);
+        json.endObject();
+        webSocket.sendFrame(json.endObject().toFrame());
+    }
+
+    /**
+     * Print a message to the console indicating that the client disconnected.
+     * @param clientSocket The client socket that disconnected.
+     * @implNote Debugging purposes only.
+     */
+    private static void printDisconnectedMessage(Socket clientSocket)
+    {
+        System.out.println("Client " + clientSocket.getPort() + " disconnected.");
     }
 
     /**
@@ -718,17 +1308,13 @@ public class MinesweeperServer
      * @param clientKey The client key.
      * @param clientSession The client session.
      */
-    private static String upgradeToWebSocket(Socket clientSocket, String clientKey, String clientSession) throws IOException, NoSuchAlgorithmException
+    private static SessionId upgradeToWebSocket(Socket clientSocket, String clientKey, SessionId clientSession) throws IOException, NoSuchAlgorithmException
     {
         OutputStream output = clientSocket.getOutputStream();
-        String magicString = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
-        String acceptKey = Base64.getEncoder()
-                .encodeToString(MessageDigest.getInstance("SHA-1")
-                .digest((clientKey + magicString).getBytes("UTF-8")));
+        String acceptKey = computeAcceptKey(clientKey);
     
         boolean sendCookie = false;
-        refreshSessions();
-        // Check if the session is valid, should erase expired sessions
+        // Check if the session is valid, expired sessions are removed by the session expiry
         if (clientSession == null || !isSessionValid(clientSession))
         {
             System.out.println("No session found: " + clientSession);
@@ -747,11 +1333,12 @@ public class MinesweeperServer
                 .append("Connection: Upgrade\r\n")
                 .append("Sec-WebSocket-Accept: ").append(acceptKey).append("\r\n");
     
-        // Only set a new cookie if required
+        // Always set the cookie so it lives as long as the session
+        response.append("Set-Cookie: SESSID=").append(clientSession)
+                .append("; Max-Age=").append(INACTIVE_TIME_OUT / 1000)
+                .append("; Path=/; Domain=localhost; HttpOnly\r\n");
         if (sendCookie)
         {
-            response.append("Set-Cookie: SESSID=").append(clientSession)
-                    .append("; Max-Age=600; Path=/; Domain=localhost; HttpOnly\r\n");
             System.out.println("Sending new session cookie: " + clientSession);
         }
     
@@ -763,28 +1350,233 @@ public class MinesweeperServer
         return clientSession;
     }
 
+    /**
+     * Compute the Sec-WebSocket-Accept value of the handshake.
+     * @param clientKey The client key.
+     * @return The accept key.
+     */
+    private static String computeAcceptKey(String clientKey) throws IOException, NoSuchAlgorithmException
+    {
+        String magicString = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+        return Base64.getEncoder()
+                .encodeToString(MessageDigest.getInstance("SHA-1")
+                .digest((clientKey + magicString).getBytes("UTF-8")));
+    }
+
+    /**
+     * Upgrade a spectator connection to a WebSocket and subscribe it to the channel of the game.
+     * @param clientSocket The client socket.
+     * @param clientKey The client key.
+     * @param channel The channel of the spectated game.
+     * @throws IOException If an I/O error occurs.
+     * @implNote No thread is kept for a spectator, its frames are written by the broadcast threads
+     * and what it sends is never read.
+     */
+    private static void handleSpectatorConnection(Socket clientSocket, String clientKey, 
+        BroadcastChannel channel) throws IOException
+    {
+        acceptWebSocket(clientSocket, clientKey);
+
+        if (imageFrames == null)
+        {
+            List<byte[]> frames = new ArrayList<>();
+            for (String message : getImageMessages())
+            {
+                frames.add(WebSocket.frame(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8))));
+            }
+            imageFrames = frames;
+        }
+        if (!channel.subscribe(clientSocket, imageFrames))
+        {
+            // The game ended during the handshake
+            clientSocket.close();
+            return;
+        }
+        System.out.println("Spectator " + clientSocket.getPort() + " subscribed, " + channel.getStatistics());
+    }
+
+    /**
+     * Complete the WebSocket handshake of a connection only written through a broadcast channel.
+     * @param clientSocket The client socket.
+     * @param clientKey The Sec-WebSocket-Key of the client.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void acceptWebSocket(Socket clientSocket, String clientKey) throws IOException
+    {
+        String acceptKey;
+        try
+        {
+            acceptKey = computeAcceptKey(clientKey);
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new IOException(e);
+        }
+        OutputStream output = clientSocket.getOutputStream();
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                          "Upgrade: websocket\r\n" +
+                          "Connection: Upgrade\r\n" +
+                          "Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
+                          "\r\n";
+        output.write(response.getBytes("UTF-8"));
+        output.flush();
+    }
+
     /*
      * Generate a session cookie for the client. The cookie is stored in the activeSessions map.
      */
-    private static String generateSessionCookie(Socket clientSocket) throws IOException
+    private static SessionId generateSessionCookie(Socket clientSocket) throws IOException
     {
-        String sessionId = UUID.randomUUID().toString();
+        SessionId sessionId = SessionId.generate();
         // Add the session to the active sessions map
-        activeSessions.put(sessionId, new SessionInfo(System.currentTimeMillis(), new Grid(GRID_SIZE)));
+        // The grid is only created on the first move
+        long timestamp = System.currentTimeMillis();
+        SessionInfo sessionInfo = new SessionInfo(timestamp, GRID_SIZE);
+        ByteBuffer snapshot = sessionInfo.toSnapshot();
+        sessionInfo.setStoreVersion(Math.max(sessionStore.put(sessionId, timestamp, snapshot), 0));
+        activeSessions.put(sessionId, sessionInfo);
+        sessionJournal.save(sessionId, snapshot);
+        sessionExpiry.schedule(sessionId, timestamp + INACTIVE_TIME_OUT);
         return sessionId;
     }
 
     /**
-     * Check if the session is still valid. (Not expired and in the active sessions map)
+     * Check if the session is still valid. (Not expired and in the active sessions map or the idle store)
      * @param sessionId The session ID.
      * @return True if the session is valid, false otherwise.
      */
-    private static boolean isSessionValid(String sessionId)
+    private static boolean isSessionValid(SessionId sessionId)
     {
         if (sessionId == null) return false;
         // Verify if the session is still active (is in the map and not expired)
-        return activeSessions.containsKey(sessionId) && 
-               (System.currentTimeMillis() - activeSessions.get(sessionId).getTimestamp()) < 600000;
+        SessionInfo sessionInfo = activeSessions.get(sessionId);
+        long lastActivity = sessionInfo != null ? sessionInfo.getLastActivity() 
+            : sessionStore.getLastActivity(sessionId);
+        return lastActivity >= 0 && 
+               (System.currentTimeMillis() - lastActivity) < INACTIVE_TIME_OUT;
+    }
+
+    /**
+     * Get a session for a new connection, reading it from the session store if it is not in use
+     * on this node.
+     * @param sessionId The session ID.
+     * @param connection The opening connection, or null for a single request.
+     * @return The session, or null if it expired.
+     * @implNote The session map entry stays locked while the session is read, so the connections
+     * of a node always share the same session.
+     */
+    private static SessionInfo acquireSession(SessionId sessionId, SessionInfo.Connection connection)
+    {
+        return activeSessions.compute(sessionId, (id, sessionInfo) ->
+        {
+            if (sessionInfo == null)
+            {
+                SessionStore.Entry entry = sessionStore.get(id);
+                if (entry == null)
+                {
+                    return null;
+                }
+                sessionInfo = SessionInfo.readSnapshot(entry.snapshot());
+                sessionInfo.setStoreVersion(entry.version());
+            }
+            if (connection != null)
+            {
+                sessionInfo.attach(connection);
+            }
+            sessionInfo.touch();
+            return sessionInfo;
+        });
+    }
+
+    /**
+     * Release a session when a connection closes, moving it off the heap if it was the last one.
+     * @param sessionId The session ID.
+     * @param connection The closing connection, or null for a single request.
+     */
+    private static void releaseSession(SessionId sessionId, SessionInfo.Connection connection)
+    {
+        activeSessions.computeIfPresent(sessionId, (id, sessionInfo) ->
+        {
+            if (sessionInfo.detach(connection) > 0)
+            {
+                return sessionInfo;
+            }
+            if (sessionInfo.isGameOver())
+            {
+                return null;
+            }
+            // No connection is left to change the session, so it is not locked here
+            if (saveSession(id, sessionInfo) < 0)
+            {
+                // Too large for the session store, stays on the heap
+                return sessionInfo;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Write the state of a session to the session store, then to the journal.
+     * @param sessionId The session ID.
+     * @param sessionInfo The session, locked by the caller or without connection.
+     * @return The new version, 0 if another node changed the session since this node read it,
+     * or -1 if the session is too large for the store.
+     * @implNote On a conflict the session is reloaded from the store: the move of this node
+     * is lost, never the one of the other node. A session no longer stored is written again
+     * as a new one. A session too large for the store is removed from it, only this node and
+     * its journal keep it.
+     */
+    private static long saveSession(SessionId sessionId, SessionInfo sessionInfo)
+    {
+        ByteBuffer snapshot = sessionInfo.toSnapshot();
+        long version = sessionStore.compareAndSet(sessionId, sessionInfo.getStoreVersion(), 
+            sessionInfo.getLastActivity(), snapshot);
+        if (version > 0)
+        {
+            sessionInfo.setStoreVersion(version);
+        }
+        else if (version < 0)
+        {
+            // Too large for the store: the stale copy is removed so that no node resumes it,
+            // the session stays on this node, and is stored again once it fits
+            sessionInfo.setStoreVersion(0);
+            if (sessionStore.expire(sessionId, Long.MAX_VALUE))
+            {
+                System.out.println("Session " + sessionId + " too large for the session store ("
+                    + snapshot.remaining() + " bytes), kept on this node only.");
+            }
+        }
+        if (version != 0)
+        {
+            sessionJournal.save(sessionId, snapshot);
+            return version;
+        }
+        SessionStore.Entry entry = sessionStore.get(sessionId);
+        if (entry == null)
+        {
+            // Expired or removed elsewhere while still in use here, stored again unless
+            // another node stores it first
+            System.out.println("Session " + sessionId + " removed on another node, stored again.");
+            sessionInfo.setStoreVersion(0);
+            return saveSession(sessionId, sessionInfo);
+        }
+        System.out.println("Session " + sessionId + " changed on another node, reloaded.");
+        sessionInfo.restore(entry.snapshot());
+        sessionInfo.setStoreVersion(entry.version());
+        return 0;
+    }
+
+    private static void sendCode404(Socket clientSocket) throws IOException
+    {
+        System.out.println("Page not found");
+        OutputStream output = clientSocket.getOutputStream();
+        String httpResponse = "HTTP/1.1 404 Not Found\r\n" +
+                            "Content-Type: text/plain\r\n" +
+                            "Connection: close\r\n\r\n" +
+                            "The requested resource was not found on this server.\r\n";
+        output.write(httpResponse.getBytes("UTF-8"));
+        output.flush();
+        clientSocket.close();
     }
 
     private static void sendCode400(Socket clientSocket) throws IOException
@@ -798,20 +1590,10 @@ public class MinesweeperServer
         clientSocket.close();
     }
 
-    /**
-     * Refresh the active sessions. (Remove expired sessions)
-     */
-    private static void refreshSessions()
-    {
-        // Remove expired sessions
-        activeSessions.entrySet().removeIf(entry -> 
-            (System.currentTimeMillis() - entry.getValue().getTimestamp()) >= 600000);
-    }
-
     private static String handleNameSubmission(Socket clientSocket, BufferedReader reader) throws IOException
     {
         String line;
-        String sessionId = null;
+        SessionId sessionId = null;
         String playerName = null;
     
         // Read headers
@@ -827,7 +1609,7 @@ public class MinesweeperServer
                     String[] cookieParts = cookie.trim().split("=");
                     if (cookieParts[0].equals("SESSID"))
                     {
-                        sessionId = cookieParts[1];
+                        sessionId = cookieParts.length > 1 ? SessionId.parse(cookieParts[1]) : null;
                         break;
                     }
                 }
@@ -851,10 +1633,16 @@ public class MinesweeperServer
         }
     
         // Associate the name with the session
-        if (sessionId != null && activeSessions.containsKey(sessionId))
+        SessionInfo sessionInfo = sessionId != null && playerName != null ? acquireSession(sessionId, null) : null;
+        if (sessionInfo != null)
         {
             System.out.println("Session ID: " + sessionId + ", Name set: " + playerName);
-            activeSessions.get(sessionId).setPlayerName(playerName);
+            synchronized (sessionInfo)
+            {
+                sessionInfo.setPlayerName(playerName);
+                saveSession(sessionId, sessionInfo);
+            }
+            releaseSession(sessionId, null);
         } 
         else
         {
@@ -876,6 +1664,17 @@ public class MinesweeperServer
         output.write(httpResponse.getBytes());
         output.flush();
 
+        // One option per board, the sizes are the ones somebody won on
+        StringBuilder boards = new StringBuilder();
+        boards.append("        <option value=\"window=all\">All time</option>\n");
+        boards.append("        <option value=\"window=day\">Today</option>\n");
+        boards.append("        <option value=\"window=week\">This week</option>\n");
+        for (short size : rankings.getSizes())
+        {
+            boards.append("        <option value=\"size=").append(size).append("\">").append(size).append("x")
+                .append(size).append("</option>\n");
+        }
+
         String html = "<!DOCTYPE html>\n"
         + "<html lang=\"en\">\n"
         + "<head>\n"
@@ -918,6 +1717,14 @@ public class MinesweeperServer
         + "</head>\n"
         + "<body>\n"
         + "    <h1>Leaderboard</h1>\n"
+        + "    <select id=\"board\">\n"
+        + boards
+        + "    </select>\n"
+        + "    <form id=\"rankForm\">\n"
+        + "        <input type=\"text\" id=\"rankName\" placeholder=\"Player name\" required>\n"
+        + "        <input type=\"submit\" value=\"MY RANK\">\n"
+        + "        <span id=\"rankResult\"></span>\n"
+        + "    </form>\n"
         + "    <table>\n"
         + "        <thead>\n"
         + "            <tr>\n"
@@ -929,6 +1736,11 @@ public class MinesweeperServer
         + "        <tbody>\n"
         + "        </tbody>\n"
         + "    </table>\n"
+        + "    <div>\n"
+        + "        <button id=\"previous\">PREVIOUS</button>\n"
+        + "        <span id=\"pageInfo\"></span>\n"
+        + "        <button id=\"next\">NEXT</button>\n"
+        + "    </div>\n"
         + "    <noscript>\n"
         + "        <div style=\"text-align:center; margin-top:50px;\">\n"
         + "            <h2>JavaScript desactivated</h2>\n"
@@ -936,35 +1748,94 @@ public class MinesweeperServer
         + "        </div>\n"
         + "    </noscript>\n"
         + "    <script>\n"
-        + "        // Connect to the WebSocket server\n"
-        + "        const ws = new WebSocket(\"ws://localhost:8013/ws\");\n"
+        + "        // Only the displayed page is fetched from the server\n"
+        + "        const pageSize = " + LEADERBOARD_PAGE_SIZE + ";\n"
+        + "        let offset = 0;\n"
+        + "        let total = 0;\n"
+        + "        // Top of the all time board, kept up to date by the server\n"
+        + "        let live = null;\n"
+        + "        let liveTotal = 0;\n"
         + "\n"
-        + "        // WebSocket event listeners\n"
-        + "        ws.onopen = function(event) {\n"
-        + "            status.textContent = \"Connected to the game server.\";\n"
-        + "            console.log(\"Connected to the game server.\");\n"
-        + "        };\n"
+        + "        function render(rows) {\n"
+        + "            const tbody = document.querySelector(\"tbody\");\n"
+        + "            tbody.innerHTML = \"\";\n"
+        + "            rows.forEach((player) => {\n"
+        + "                const tr = document.createElement(\"tr\");\n"
+        + "                // As text, a name is never markup\n"
+        + "                [player.rank, player.name, player.time].forEach((value) => {\n"
+        + "                    const td = document.createElement(\"td\");\n"
+        + "                    td.textContent = value;\n"
+        + "                    tr.appendChild(td);\n"
+        + "                });\n"
+        + "                tbody.appendChild(tr);\n"
+        + "            });\n"
+        + "            const last = Math.max(1, Math.ceil(total / pageSize));\n"
+        + "            pageInfo.textContent = `Page ${Math.floor(offset / pageSize) + 1} / ${last}`;\n"
+        + "            previous.disabled = offset === 0;\n"
+        + "            next.disabled = offset + pageSize >= total;\n"
+        + "        }\n"
+        + "\n"
+        + "        function showingLive() {\n"
+        + "            return live !== null && offset === 0 && board.value === \"window=all\";\n"
+        + "        }\n"
         + "\n"
+        + "        const ws = new WebSocket(`ws://${location.host}" + LEADERBOARD_LIVE_PATH + "`);\n"
         + "        ws.onmessage = (event) => {\n"
-        + "            const data = event.data;\n"
-        + "            if (data.includes(\"LEADERBOARD\")) {\n"
-        + "                // Parse the JSON data\n"
-        + "                const jsonData = JSON.parse(data);\n"
-        + "                const leaderboard = jsonData.LEADERBOARD;\n"
+        + "            const jsonData = JSON.parse(event.data);\n"
+        + "            if (jsonData.LEADERBOARD) {\n"
+        + "                live = jsonData.LEADERBOARD;\n"
+        + "            } else {\n"
+        + "                // The changed rows replace the ones of the same rank\n"
+        + "                jsonData.LEADERBOARD_DIFF.forEach((player) => { live[player.rank - 1] = player; });\n"
+        + "                live.length = jsonData.size;\n"
+        + "            }\n"
+        + "            liveTotal = jsonData.total;\n"
+        + "            if (showingLive()) {\n"
+        + "                total = liveTotal;\n"
+        + "                render(live);\n"
+        + "            }\n"
+        + "        };\n"
         + "\n"
-        + "                const tbody = document.querySelector(\"tbody\");\n"
-        + "                tbody.innerHTML = \"\";\n"
-        + "                leaderboard.forEach((player, index) => {\n"
-        + "                    const tr = document.createElement(\"tr\");\n"
-        + "                    tr.innerHTML = `\n"
-        + "                        <td>${index + 1}</td>\n"
-        + "                        <td>${player.name}</td>\n"
-        + "                        <td>${player.time}</td>\n"
-        + "                    `;\n"
-        + "                    tbody.appendChild(tr);\n"
-        + "                });\n"
+        + "        function loadPage(newOffset) {\n"
+        + "            offset = newOffset;\n"
+        + "            if (showingLive()) {\n"
+        + "                total = liveTotal;\n"
+        + "                render(live);\n"
+        + "                return;\n"
         + "            }\n"
-        + "        };"
+        + "            const requested = board.value;\n"
+        + "            fetch(`/leaderboard/top?${requested}&offset=${newOffset}&limit=${pageSize}`)\n"
+        + "                .then(response => response.json())\n"
+        + "                .then(jsonData => {\n"
+        + "                    // A page still wanted, the board or the page may have changed meanwhile\n"
+        + "                    if (jsonData.offset !== offset || requested !== board.value || showingLive()) {\n"
+        + "                        return;\n"
+        + "                    }\n"
+        + "                    total = jsonData.total;\n"
+        + "                    render(jsonData.LEADERBOARD);\n"
+        + "                });\n"
+        + "        }\n"
+        + "\n"
+        + "        previous.onclick = () => loadPage(Math.max(0, offset - pageSize));\n"
+        + "        next.onclick = () => loadPage(offset + pageSize);\n"
+        + "        board.onchange = () => loadPage(0);\n"
+        + "\n"
+        + "        // Show the rank of a player and jump to its page\n"
+        + "        rankForm.onsubmit = (event) => {\n"
+        + "            event.preventDefault();\n"
+        + "            fetch(`/leaderboard/rank?${board.value}&name=${encodeURIComponent(rankName.value)}`)\n"
+        + "                .then(response => response.json())\n"
+        + "                .then(jsonData => {\n"
+        + "                    if (jsonData.rank < 0) {\n"
+        + "                        rankResult.textContent = \"No result for this player.\";\n"
+        + "                        return;\n"
+        + "                    }\n"
+        + "                    rankResult.textContent = `Rank ${jsonData.rank} / ${jsonData.total}, ${jsonData.time} ms`;\n"
+        + "                    loadPage(Math.floor((jsonData.rank - 1) / pageSize) * pageSize);\n"
+        + "                });\n"
+        + "        };\n"
+        + "\n"
+        + "        loadPage(0);\n"
         + "    </script>\n"
         + "</body>\n"
         + "</html>\n";
@@ -974,8 +1845,10 @@ public class MinesweeperServer
         output.close();
     }
 
-    private static void sendPlayHtmlPage(Socket clientSocket) throws IOException
+    private static void sendPlayHtmlPage(Socket clientSocket, String spectatePath) throws IOException
     {
+        // A spectator gets the same page, connected to the game it watches and without the controls
+        boolean spectating = spectatePath != null;
         OutputStream output = clientSocket.getOutputStream();
     
         String httpResponse = "HTTP/1.1 200 OK\r\n" +
@@ -988,7 +1861,8 @@ public class MinesweeperServer
 
         String script = "<script>\n" +
         "    // Connect to the WebSocket server\n" +
-        "    const ws = new WebSocket(\"ws://localhost:8013/ws\");\n" +
+        "    const ws = new WebSocket(`ws://${location.host}" + (spectating ? spectatePath : "/ws") + "`);\n" +
+        "    const spectating = " + spectating + ";\n" +
         "    let bombImage = \"\";\n" +
         "    let flagImage = \"\";\n" +
         "\n" +
@@ -1001,7 +1875,17 @@ public class MinesweeperServer
         "    ws.onmessage = (event) => {\n" +
         "        const gridData = event.data;\n" +
         "        console.log(\"Received:\", gridData);\n" +
-        "        if(gridData.includes(\"GAME LOST\")) {\n" +
+        "        if (gridData.startsWith(\"{\")) {\n" +
+        "            // JSON: the leaderboard, or a rejected command and the game goes on\n" +
+        "            const message = JSON.parse(gridData);\n" +
+        "            if (message.ERROR) {\n" +
+        "                status.textContent = `Invalid command (${message.ERROR.reason}): ${message.ERROR.command}`;\n" +
+        "            }\n" +
+        "        } else if (gridData.startsWith(\"SPECTATE \")) {\n" +
+        "            const url = `${location.origin}/spectate/${gridData.substring(9).trim()}`;\n" +
+        "            spectateLink.href = url;\n" +
+        "            spectateLink.textContent = url;\n" +
+        "        } else if(gridData.includes(\"GAME LOST\")) {\n" +
         "            status.textContent = \"GAME LOST\";\n" +
         "            updateGrid(gridData);\n" +
         "        } else if(gridData.includes(\"GAME WON\")) {\n" +
@@ -1033,37 +1917,86 @@ public class MinesweeperServer
         "    // Elements\n" +
         "    const grid = document.getElementById(\"grid\");\n" +
         "    const status = document.getElementById(\"status\");\n" +
-        "    const cheatButton = document.getElementById(\"cheat\");\n" +
-        "    cheatButton.addEventListener(\"click\", () => {\n" +
-        "        ws.send(\"CHEAT\");\n" +
-        "    });\n" +
+        "    const spectateLink = document.getElementById(\"spectateLink\");\n" +
+        "    let panning = false;\n" +
+        "    if (!spectating) {\n" +
+        "        const cheatButton = document.getElementById(\"cheat\");\n" +
+        "        cheatButton.addEventListener(\"click\", () => {\n" +
+        "            ws.send(\"CHEAT\");\n" +
+        "        });\n" +
+        "        const noGuessButton = document.getElementById(\"noguess\");\n" +
+        "        noGuessButton.addEventListener(\"click\", () => {\n" +
+        "            ws.send(\"MODE NO_GUESS\");\n" +
+        "        });\n" +
+        "        const infiniteButton = document.getElementById(\"infinite\");\n" +
+        "        infiniteButton.addEventListener(\"click\", () => {\n" +
+        "            ws.send(\"MODE INFINITE\");\n" +
+        "            panning = true;\n" +
+        "        });\n" +
+        "        const spectateButton = document.getElementById(\"spectate\");\n" +
+        "        spectateButton.addEventListener(\"click\", () => {\n" +
+        "            ws.send(\"SPECTATE\");\n" +
+        "        });\n" +
+        "    }\n" +
         "\n" +
-        "    // Initialize the grid\n" +
-        "    const rows = 7, cols = 7;\n" +
+        "    // Initialize the grid, the origin is the board cell of the top left cell\n" +
+        "    let rows = 7, cols = 7, originX = 0, originY = 0;\n" +
         "    const cells = [];\n" +
-        "    for (let i = 0; i < rows; i++) {\n" +
-        "        for (let j = 0; j < cols; j++) {\n" +
-        "            const cell = document.createElement(\"div\");\n" +
-        "            cell.classList.add(\"cell\");\n" +
-        "            cell.dataset.row = i;\n" +
-        "            cell.dataset.col = j;\n" +
-        "            grid.appendChild(cell);\n" +
-        "            cells.push(cell);\n" +
-        "            cell.addEventListener(\"click\", () => ws.send(`TRY ${i} ${j}`));\n" +
-        "            cell.addEventListener(\"contextmenu\", (e) => {\n" +
-        "                e.preventDefault();\n" +
-        "                ws.send(`FLAG ${i} ${j}`);\n" +
-        "            });\n" +
+        "    function buildGrid() {\n" +
+        "        grid.innerHTML = \"\";\n" +
+        "        cells.length = 0;\n" +
+        "        grid.style.gridTemplateColumns = `repeat(${cols}, 40px)`;\n" +
+        "        for (let i = 0; i < rows; i++) {\n" +
+        "            for (let j = 0; j < cols; j++) {\n" +
+        "                const cell = document.createElement(\"div\");\n" +
+        "                cell.classList.add(\"cell\");\n" +
+        "                cell.dataset.row = i;\n" +
+        "                cell.dataset.col = j;\n" +
+        "                grid.appendChild(cell);\n" +
+        "                cells.push(cell);\n" +
+        "                if (spectating) {\n" +
+        "                    continue;\n" +
+        "                }\n" +
+        "                cell.addEventListener(\"click\", () => ws.send(`TRY ${originX + i} ${originY + j}`));\n" +
+        "                cell.addEventListener(\"dblclick\", () => ws.send(`CHORD ${originX + i} ${originY + j}`));\n" +
+        "                cell.addEventListener(\"contextmenu\", (e) => {\n" +
+        "                    e.preventDefault();\n" +
+        "                    ws.send(`FLAG ${originX + i} ${originY + j}`);\n" +
+        "                });\n" +
+        "            }\n" +
         "        }\n" +
         "    }\n" +
+        "    buildGrid();\n" +
+        "\n" +
+        "    // Move the window of the infinite board with the arrow keys\n" +
+        "    document.addEventListener(\"keydown\", (e) => {\n" +
+        "        const moves = { ArrowUp: [-4, 0], ArrowDown: [4, 0], ArrowLeft: [0, -4], ArrowRight: [0, 4] };\n" +
+        "        if (panning && moves[e.key]) {\n" +
+        "            e.preventDefault();\n" +
+        "            ws.send(`VIEW ${originX + moves[e.key][0]} ${originY + moves[e.key][1]} ${cols} ${rows}`);\n" +
+        "        }\n" +
+        "    });\n" +
         "\n" +
         "    // Update the grid based on server data\n" +
         "    function updateGrid(gridData) {\n" +
-        "        const rows = gridData.split(\"\\r\\n\").filter(line => line.trim() !== \"\");\n" +
-        "        for (let i = 0; i < rows.length; i++) {\n" +
-        "            for (let j = 0; j < rows[i].length; j++) {\n" +
+        "        let lines = gridData.split(\"\\r\\n\")\n" +
+        "            .filter(line => line.trim() !== \"\" && !line.startsWith(\"GAME\"));\n" +
+        "        // A window of a larger board starts with \"VIEW x y width height\"\n" +
+        "        if (lines.length > 0 && lines[0].startsWith(\"VIEW \")) {\n" +
+        "            const view = lines[0].split(\" \").map(Number);\n" +
+        "            lines = lines.slice(1);\n" +
+        "            originX = view[1];\n" +
+        "            originY = view[2];\n" +
+        "            if (view[3] !== cols || view[4] !== rows) {\n" +
+        "                cols = view[3];\n" +
+        "                rows = view[4];\n" +
+        "                buildGrid();\n" +
+        "            }\n" +
+        "        }\n" +
+        "        for (let i = 0; i < lines.length; i++) {\n" +
+        "            for (let j = 0; j < lines[i].length; j++) {\n" +
         "                const cell = cells[i * cols + j];\n" +
-        "                const state = rows[i][j];\n" +
+        "                const state = lines[i][j];\n" +
         "                cell.innerHTML = \"\";\n" +
         "                cell.className = \"cell\";\n" +
         "                \n" +
@@ -1189,26 +2122,36 @@ public class MinesweeperServer
         "    }\n" +
         "</style>";                                            
 
+        String nameForm = spectating ? "" :
+        "    <div class=\"container\">\n" +
+        "        <form method=\"POST\" action=\"/submitName\">\n" +
+        "            <input type=\"text\" name=\"playerName\" placeholder=\"Your name\" required />\n" +
+        "            <input type=\"submit\" value=\"Submit Name\" />\n" +
+        "        </form>\n" +
+        "    </div>\n";
+
+        String controls = spectating ? "" :
+        "    <form method=\"POST\" action=\"\">\n" +
+        "        <input type=\"submit\" value=\"CHEAT\" id=\"cheat\"/>\n" +
+        "    </form>\n" +
+        "    <button type=\"button\" id=\"noguess\">NO GUESS MODE</button>\n" +
+        "    <button type=\"button\" id=\"infinite\">INFINITE MODE</button>\n" +
+        "    <button type=\"button\" id=\"spectate\">SPECTATE LINK</button>\n" +
+        "    <p><a id=\"spectateLink\" target=\"_blank\"></a></p>\n";
+
         String htmlContent = "<!DOCTYPE html>\n" +
         "<html>\n" +
         "<head>\n" +
         "    <meta charset=\"UTF-8\">\n" +
-        "    <title>Play Minesweeper</title>\n" +
+        "    <title>" + (spectating ? "Spectate" : "Play") + " Minesweeper</title>\n" +
             style + "\n" +
         "</head>\n" +
         "<body>\n" +
         "    <h1>Minesweeper</h1>\n" +
-        "    <div class=\"container\">\n" +
-        "        <form method=\"POST\" action=\"/submitName\">\n" +
-        "            <input type=\"text\" name=\"playerName\" placeholder=\"Your name\" required />\n" +
-        "            <input type=\"submit\" value=\"Submit Name\" />\n" +
-        "        </form>\n" +
-        "    </div>\n" +
+            nameForm +
         "    <div id=\"grid\"></div>\n" +
         "    <p id=\"status\"></p>\n" +
-        "    <form method=\"POST\" action=\"\">\n" +
-        "        <input type=\"submit\" value=\"CHEAT\" id=\"cheat\"/>\n" +
-        "    </form>\n" +
+            controls +
         "    <form method=\"POST\" action=\"/leaderboard\">\n" +
         "        <input type=\"submit\" value=\"LEADERBOARD\"\"/>\n" +
         "    </form>\n" +
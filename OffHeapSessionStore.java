@@ -0,0 +1,430 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class OffHeapSessionStore implements SessionStore
+{
+    // Independent stores, chosen by the key, so the threads rarely wait for each other
+    private static final int NUMBER_SEGMENTS = 16;
+    private static final int INITIAL_SLOTS = 1024;
+    // Slot of the index: key (16 bytes), block address (8), length (4), padding (4), last activity (8),
+    // version (8)
+    private static final int SLOT_SIZE = 48;
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+    // The snapshots live in direct buffers of this size, a larger snapshot stays on the heap
+    private static final int ARENA_CHUNK_SIZE = 1 << 20;
+    // Blocks are multiples of 16 bytes up to 1 KiB, then powers of two
+    private static final int SMALL_BLOCK_LIMIT = 1024;
+    private static final int NUMBER_SMALL_CLASSES = SMALL_BLOCK_LIMIT / 16;
+    private static final int NUMBER_CLASSES = NUMBER_SMALL_CLASSES
+        + Integer.numberOfTrailingZeros(ARENA_CHUNK_SIZE / SMALL_BLOCK_LIMIT);
+
+    /**
+     * A part of the store: an open addressing index and the arena holding the snapshots.
+     * @implNote Everything lives in direct buffers, the heap only holds the buffers themselves.
+     */
+    private static class Segment
+    {
+        private ByteBuffer index = ByteBuffer.allocateDirect(INITIAL_SLOTS * SLOT_SIZE);
+        private int numberSlots = INITIAL_SLOTS;
+        private int numberEntries = 0;
+        private int numberRemoved = 0;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        // Bump pointer in the last chunk
+        private int chunkOffset = ARENA_CHUNK_SIZE;
+        // Freed blocks of each class, linked through their first 8 bytes
+        private final long[] freeBlocks = new long[NUMBER_CLASSES];
+        private long usedBytes = 0;
+
+        private Segment()
+        {
+            Arrays.fill(freeBlocks, -1);
+        }
+
+        /**
+         * Find the slot of a key.
+         * @param high The upper 64 bits of the key.
+         * @param low The lower 64 bits of the key.
+         * @return The offset of the slot holding the key, or the complement of the
+         * offset of the slot where it can be inserted.
+         */
+        private int findSlot(long high, long low)
+        {
+            int mask = numberSlots - 1;
+            int slot = hash(high, low) & mask;
+            int insertAt = -1;
+            while(true)
+            {
+                int offset = slot * SLOT_SIZE;
+                int length = index.getInt(offset + 24);
+                if(length == EMPTY)
+                {
+                    return ~(insertAt >= 0 ? insertAt : offset);
+                }
+                if(length == REMOVED)
+                {
+                    if(insertAt < 0)
+                    {
+                        insertAt = offset;
+                    }
+                }
+                else if(index.getLong(offset) == high && index.getLong(offset + 8) == low)
+                {
+                    return offset;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Rebuild the index, twice as large if it is mostly full of live entries.
+         */
+        private void resize()
+        {
+            int newNumberSlots = numberEntries * 2 > numberSlots ? numberSlots * 2 : numberSlots;
+            ByteBuffer oldIndex = index;
+            int oldNumberSlots = numberSlots;
+            index = ByteBuffer.allocateDirect(newNumberSlots * SLOT_SIZE);
+            numberSlots = newNumberSlots;
+            numberRemoved = 0;
+            for(int slot = 0; slot < oldNumberSlots; slot++)
+            {
+                int offset = slot * SLOT_SIZE;
+                if(oldIndex.getInt(offset + 24) <= 0)
+                {
+                    continue;
+                }
+                int newOffset = ~findSlot(oldIndex.getLong(offset), oldIndex.getLong(offset + 8));
+                for(int k = 0; k < SLOT_SIZE; k += 8)
+                {
+                    index.putLong(newOffset + k, oldIndex.getLong(offset + k));
+                }
+            }
+        }
+
+        /**
+         * Allocate a block in the arena.
+         * @param length The number of bytes to hold.
+         * @return The address of the block: chunk number in the upper 32 bits, offset in the lower.
+         */
+        private long allocate(int length)
+        {
+            int sizeClass = getSizeClass(length);
+            long address = freeBlocks[sizeClass];
+            if(address >= 0)
+            {
+                freeBlocks[sizeClass] = chunks.get((int)(address >>> 32)).getLong((int)address);
+                return address;
+            }
+            int blockSize = getBlockSize(sizeClass);
+            if(chunkOffset + blockSize > ARENA_CHUNK_SIZE)
+            {
+                chunks.add(ByteBuffer.allocateDirect(ARENA_CHUNK_SIZE));
+                chunkOffset = 0;
+            }
+            address = ((long)(chunks.size() - 1) << 32) | chunkOffset;
+            chunkOffset += blockSize;
+            return address;
+        }
+
+        /**
+         * Give a block back to the arena.
+         * @param address The address of the block.
+         * @param length The number of bytes it holds.
+         */
+        private void free(long address, int length)
+        {
+            int sizeClass = getSizeClass(length);
+            chunks.get((int)(address >>> 32)).putLong((int)address, freeBlocks[sizeClass]);
+            freeBlocks[sizeClass] = address;
+        }
+
+        /**
+         * Get a view over a block.
+         * @param address The address of the block.
+         * @param length The number of bytes it holds.
+         * @return The view.
+         */
+        private ByteBuffer getBlock(long address, int length)
+        {
+            return chunks.get((int)(address >>> 32)).slice((int)address, length);
+        }
+    }
+
+    private final Segment[] segments = new Segment[NUMBER_SEGMENTS];
+
+    /**
+     * Constructor for the OffHeapSessionStore class.
+     */
+    public OffHeapSessionStore()
+    {
+        for(int i = 0; i < NUMBER_SEGMENTS; i++)
+        {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Mix the bits of a key.
+     * @param high The upper 64 bits of the key.
+     * @param low The lower 64 bits of the key.
+     * @return The hash of the key.
+     */
+    private static int hash(long high, long low)
+    {
+        long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int)(mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Get the segment holding a key.
+     * @param high The upper 64 bits of the key.
+     * @param low The lower 64 bits of the key.
+     * @return The segment.
+     */
+    private Segment getSegment(long high, long low)
+    {
+        // The upper bits, the lower ones pick the slot
+        return segments[hash(high, low) >>> 28 & (NUMBER_SEGMENTS - 1)];
+    }
+
+    /**
+     * Get the size class of a block.
+     * @param length The number of bytes to hold.
+     * @return The size class.
+     */
+    private static int getSizeClass(int length)
+    {
+        if(length <= SMALL_BLOCK_LIMIT)
+        {
+            return (length + 15) / 16 - 1;
+        }
+        return NUMBER_SMALL_CLASSES + 32 - Integer.numberOfLeadingZeros(length - 1)
+            - Integer.numberOfTrailingZeros(SMALL_BLOCK_LIMIT) - 1;
+    }
+
+    /**
+     * Get the size of the blocks of a class.
+     * @param sizeClass The size class.
+     * @return The number of bytes of the blocks.
+     */
+    private static int getBlockSize(int sizeClass)
+    {
+        if(sizeClass < NUMBER_SMALL_CLASSES)
+        {
+            return (sizeClass + 1) * 16;
+        }
+        return SMALL_BLOCK_LIMIT << (sizeClass - NUMBER_SMALL_CLASSES + 1);
+    }
+
+    @Override
+    public Entry get(SessionId sessionId)
+    {
+        Segment segment = getSegment(sessionId.high(), sessionId.low());
+        synchronized(segment)
+        {
+            int offset = segment.findSlot(sessionId.high(), sessionId.low());
+            if(offset < 0)
+            {
+                return null;
+            }
+            int length = segment.index.getInt(offset + 24);
+            ByteBuffer snapshot = ByteBuffer.allocate(length);
+            snapshot.put(segment.getBlock(segment.index.getLong(offset + 16), length)).flip();
+            return new Entry(segment.index.getLong(offset + 40), segment.index.getLong(offset + 32), snapshot);
+        }
+    }
+
+    @Override
+    public long getLastActivity(SessionId sessionId)
+    {
+        Segment segment = getSegment(sessionId.high(), sessionId.low());
+        synchronized(segment)
+        {
+            int offset = segment.findSlot(sessionId.high(), sessionId.low());
+            return offset < 0 ? -1 : segment.index.getLong(offset + 32);
+        }
+    }
+
+    @Override
+    public long put(SessionId sessionId, long lastActivity, ByteBuffer snapshot)
+    {
+        return write(sessionId, -1, lastActivity, snapshot);
+    }
+
+    @Override
+    public long compareAndSet(SessionId sessionId, long expectedVersion, long lastActivity, ByteBuffer snapshot)
+    {
+        return write(sessionId, expectedVersion, lastActivity, snapshot);
+    }
+
+    /**
+     * Store the snapshot of a session, replacing any previous one.
+     * @param sessionId The session ID.
+     * @param expectedVersion The version to replace, 0 for a session not stored, -1 for any.
+     * @param lastActivity The last activity of the session, in milliseconds.
+     * @param snapshot The snapshot of the session, copied from its position to its limit.
+     * @return The new version, 0 if the stored version is another one, or -1 if the snapshot is too large.
+     */
+    private long write(SessionId sessionId, long expectedVersion, long lastActivity, ByteBuffer snapshot)
+    {
+        int length = snapshot.remaining();
+        if(length <= 0 || length > ARENA_CHUNK_SIZE)
+        {
+            return -1;
+        }
+        long high = sessionId.high();
+        long low = sessionId.low();
+        Segment segment = getSegment(high, low);
+        synchronized(segment)
+        {
+            int offset = segment.findSlot(high, low);
+            long version = offset >= 0 ? segment.index.getLong(offset + 40) : 0;
+            if(expectedVersion >= 0 && expectedVersion != version)
+            {
+                return 0;
+            }
+            if(offset >= 0)
+            {
+                int oldLength = segment.index.getInt(offset + 24);
+                segment.free(segment.index.getLong(offset + 16), oldLength);
+                segment.usedBytes -= oldLength;
+            }
+            else
+            {
+                if((segment.numberEntries + segment.numberRemoved + 1) * 4 > segment.numberSlots * 3)
+                {
+                    segment.resize();
+                }
+                offset = ~segment.findSlot(high, low);
+                if(segment.index.getInt(offset + 24) == REMOVED)
+                {
+                    segment.numberRemoved--;
+                }
+                segment.numberEntries++;
+            }
+            long address = segment.allocate(length);
+            segment.getBlock(address, length).put(snapshot.duplicate());
+            segment.index.putLong(offset, high);
+            segment.index.putLong(offset + 8, low);
+            segment.index.putLong(offset + 16, address);
+            segment.index.putInt(offset + 24, length);
+            segment.index.putLong(offset + 32, lastActivity);
+            segment.index.putLong(offset + 40, version + 1);
+            segment.usedBytes += length;
+            return version + 1;
+        }
+    }
+
+    @Override
+    public boolean touch(SessionId sessionId, long lastActivity)
+    {
+        Segment segment = getSegment(sessionId.high(), sessionId.low());
+        synchronized(segment)
+        {
+            int offset = segment.findSlot(sessionId.high(), sessionId.low());
+            if(offset < 0)
+            {
+                return false;
+            }
+            segment.index.putLong(offset + 32, Math.max(lastActivity, segment.index.getLong(offset + 32)));
+            return true;
+        }
+    }
+
+    @Override
+    public boolean expire(SessionId sessionId, long notAfter)
+    {
+        Segment segment = getSegment(sessionId.high(), sessionId.low());
+        synchronized(segment)
+        {
+            int offset = segment.findSlot(sessionId.high(), sessionId.low());
+            if(offset < 0 || segment.index.getLong(offset + 32) > notAfter)
+            {
+                return false;
+            }
+            int length = segment.index.getInt(offset + 24);
+            segment.free(segment.index.getLong(offset + 16), length);
+            segment.index.putInt(offset + 24, REMOVED);
+            segment.numberEntries--;
+            segment.numberRemoved++;
+            segment.usedBytes -= length;
+            return true;
+        }
+    }
+
+    /**
+     * Visit the stored sessions, one segment at a time.
+     * @param visitor The visitor, called with the segment locked.
+     */
+    @Override
+    public void forEach(Visitor visitor)
+    {
+        for(Segment segment : segments)
+        {
+            synchronized(segment)
+            {
+                for(int slot = 0; slot < segment.numberSlots; slot++)
+                {
+                    int offset = slot * SLOT_SIZE;
+                    int length = segment.index.getInt(offset + 24);
+                    if(length > 0)
+                    {
+                        visitor.visit(new SessionId(segment.index.getLong(offset), segment.index.getLong(offset + 8)),
+                            segment.index.getLong(offset + 32),
+                            segment.getBlock(segment.index.getLong(offset + 16), length));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        int size = 0;
+        for(Segment segment : segments)
+        {
+            synchronized(segment)
+            {
+                size += segment.numberEntries;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The sessions only live in this process, the journal keeps them across restarts.
+     */
+    @Override
+    public boolean isPersistent()
+    {
+        return false;
+    }
+
+    /**
+     * Get the store counters.
+     * @return The number of sessions, the bytes of their snapshots and the off-heap bytes reserved.
+     */
+    @Override
+    public String getStatistics()
+    {
+        int numberEntries = 0;
+        long usedBytes = 0;
+        long reservedBytes = 0;
+        for(Segment segment : segments)
+        {
+            synchronized(segment)
+            {
+                numberEntries += segment.numberEntries;
+                usedBytes += segment.usedBytes;
+                reservedBytes += (long)segment.chunks.size() * ARENA_CHUNK_SIZE
+                    + (long)segment.numberSlots * SLOT_SIZE;
+            }
+        }
+        return "stored sessions: " + numberEntries + ", snapshot bytes: " + usedBytes
+            + ", off-heap bytes: " + reservedBytes;
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The leaderboards of the players: all time, per board size, of the day and of the week.
+ * @implNote Each win updates every board it belongs to in O(log n), the boards of the day and
+ * of the week expire at once when their period ends.
+ */
+public class Rankings
+{
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long WEEK_MILLIS = 7 * DAY_MILLIS;
+    // The epoch is a Thursday, the weeks start on the following Monday (UTC)
+    private static final long WEEK_ORIGIN = 4 * DAY_MILLIS;
+    // The current period and the previous one, a late result of the previous period still counts
+    private static final int NUMBER_PERIODS = 2;
+
+    /**
+     * A leaderboard per period of time, the board of an ended period is recycled as a whole.
+     */
+    private static class RollingLeaderboard
+    {
+        /**
+         * The leaderboard of a period.
+         * @param period The number of the period since the origin.
+         * @param leaderboard The results of the period.
+         */
+        private record Bucket(long period, Leaderboard leaderboard) {}
+
+        private final long periodMillis;
+        private final long origin;
+        private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(NUMBER_PERIODS);
+
+        /**
+         * Constructor for the RollingLeaderboard class.
+         * @param periodMillis The length of a period, in milliseconds.
+         * @param origin The start of the first period, in milliseconds since the epoch.
+         */
+        private RollingLeaderboard(long periodMillis, long origin)
+        {
+            this.periodMillis = periodMillis;
+            this.origin = origin;
+        }
+
+        /**
+         * Get the leaderboard of the period of a time.
+         * @param timestamp The time, in milliseconds since the epoch.
+         * @return The leaderboard, or null if the period is older than the ones kept.
+         * @implNote O(1), the bucket of an older period is replaced without touching its results.
+         */
+        private Leaderboard get(long timestamp)
+        {
+            long period = Math.floorDiv(timestamp - origin, periodMillis);
+            int index = (int)Math.floorMod(period, (long)NUMBER_PERIODS);
+            while(true)
+            {
+                Bucket bucket = buckets.get(index);
+                if(bucket != null && bucket.period() >= period)
+                {
+                    return bucket.period() == period ? bucket.leaderboard() : null;
+                }
+                Bucket next = new Bucket(period, new Leaderboard());
+                if(buckets.compareAndSet(index, bucket, next))
+                {
+                    return next.leaderboard();
+                }
+            }
+        }
+
+        /**
+         * Add the results kept to a collection.
+         * @param results The collection.
+         */
+        private void collect(Collection<Leaderboard.Entry> results)
+        {
+            for(int i = 0; i < NUMBER_PERIODS; i++)
+            {
+                Bucket bucket = buckets.get(i);
+                if(bucket != null)
+                {
+                    results.addAll(bucket.leaderboard().getRanking());
+                }
+            }
+        }
+
+        /**
+         * Count the results kept.
+         * @return The number of results in the kept periods.
+         */
+        private int size()
+        {
+            int size = 0;
+            for(int i = 0; i < NUMBER_PERIODS; i++)
+            {
+                Bucket bucket = buckets.get(i);
+                size += bucket != null ? bucket.leaderboard().size() : 0;
+            }
+            return size;
+        }
+    }
+
+    private final Leaderboard allTime = new Leaderboard();
+    private final Map<Short, Leaderboard> bySize = new ConcurrentHashMap<>();
+    private final RollingLeaderboard daily = new RollingLeaderboard(DAY_MILLIS, 0);
+    private final RollingLeaderboard weekly = new RollingLeaderboard(WEEK_MILLIS, WEEK_ORIGIN);
+
+    /**
+     * Add a result to every board it belongs to.
+     * @param entry The result.
+     * @return True if the result is the best time of the player on at least one board.
+     * @implNote A result without board size or timestamp, recorded before they were kept,
+     * only counts for the all time board.
+     */
+    public boolean record(Leaderboard.Entry entry)
+    {
+        boolean best = allTime.put(entry);
+        if(entry.gridSize() > 0)
+        {
+            best |= bySize.computeIfAbsent(entry.gridSize(), size -> new Leaderboard()).put(entry);
+        }
+        if(entry.timestamp() > 0)
+        {
+            Leaderboard day = daily.get(entry.timestamp());
+            best |= day != null && day.put(entry);
+            Leaderboard week = weekly.get(entry.timestamp());
+            best |= week != null && week.put(entry);
+        }
+        return best;
+    }
+
+    /**
+     * Get the all time leaderboard.
+     * @return The leaderboard.
+     */
+    public Leaderboard getAllTime()
+    {
+        return allTime;
+    }
+
+    /**
+     * Get the leaderboard of a board size.
+     * @param gridSize The size of the board.
+     * @return The leaderboard, or null if nobody won on this size.
+     */
+    public Leaderboard getBySize(short gridSize)
+    {
+        return bySize.get(gridSize);
+    }
+
+    /**
+     * Get the board sizes with a leaderboard.
+     * @return The sizes, smallest first.
+     */
+    public Set<Short> getSizes()
+    {
+        return new TreeSet<>(bySize.keySet());
+    }
+
+    /**
+     * Get the leaderboard of the day.
+     * @param now The current time, in milliseconds since the epoch.
+     * @return The leaderboard of the day (UTC).
+     */
+    public Leaderboard getDaily(long now)
+    {
+        return daily.get(now);
+    }
+
+    /**
+     * Get the leaderboard of the week.
+     * @param now The current time, in milliseconds since the epoch.
+     * @return The leaderboard of the week, starting on Monday (UTC).
+     */
+    public Leaderboard getWeekly(long now)
+    {
+        return weekly.get(now);
+    }
+
+    /**
+     * Get the results needed to rebuild every board.
+     * @return The results, each one once.
+     */
+    public Collection<Leaderboard.Entry> getResults()
+    {
+        Set<Leaderboard.Entry> results = new LinkedHashSet<>(allTime.getRanking());
+        for(Leaderboard leaderboard : bySize.values())
+        {
+            results.addAll(leaderboard.getRanking());
+        }
+        daily.collect(results);
+        weekly.collect(results);
+        return results;
+    }
+
+    /**
+     * Count the results of every board.
+     * @return The number of results, a result on several boards counted on each.
+     */
+    public int countResults()
+    {
+        int count = allTime.size() + daily.size() + weekly.size();
+        for(Leaderboard leaderboard : bySize.values())
+        {
+            count += leaderboard.size();
+        }
+        return count;
+    }
+}
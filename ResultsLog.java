@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32C;
+
+public class ResultsLog
+{
+    // "MRL1" at the start of the file
+    private static final int MAGIC = 0x4D524C31;
+    private static final int FILE_HEADER_SIZE = 4;
+    // Length of the payload and its checksum before each record
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Timestamp, time, grid size, mode and length of the name before the name
+    private static final int PAYLOAD_HEADER_SIZE = 8 + 8 + 2 + 1 + 2;
+    // Results written per fsync at most
+    private static final int MAX_BATCH = 1024;
+    // The log is compacted once it holds this many records per result of the boards, plus a margin
+    private static final int COMPACTION_RATIO = 2;
+    private static final int COMPACTION_MARGIN = 1024;
+    // Wait before writing again a batch that failed, in milliseconds
+    private static final long RETRY_MILLIS = 1000;
+
+    private final Path path;
+    private final Rankings rankings;
+    // Results waiting for the writer thread, the game threads never wait for the disk
+    private final BlockingQueue<Leaderboard.Entry> pending = new LinkedBlockingQueue<>();
+    // Only used by the writer thread once started
+    private FileChannel channel;
+    // End of the records synced, a batch that failed after it is cut off before the next one
+    private long syncedEnd = 0;
+    private long numberRecords = 0;
+    private long numberSyncs = 0;
+    private long numberCompactions = 0;
+
+    /**
+     * Constructor for the ResultsLog class.
+     * @param path The log file.
+     * @param rankings The leaderboards, filled on recovery.
+     */
+    public ResultsLog(Path path, Rankings rankings)
+    {
+        this.path = path;
+        this.rankings = rankings;
+    }
+
+    /**
+     * Load the results of the log into the leaderboards and reopen it for the appends.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The log is read through a read-only mapping, it ends at the first torn or
+     * corrupted record and the appends resume there.
+     */
+    public void recover() throws IOException
+    {
+        long start = System.nanoTime();
+        Files.deleteIfExists(getCompactPath());
+        int end = -1;
+        if(Files.exists(path))
+        {
+            try(FileChannel reader = FileChannel.open(path, StandardOpenOption.READ))
+            {
+                MappedByteBuffer log = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+                end = load(log);
+            }
+        }
+        if(end < FILE_HEADER_SIZE)
+        {
+            // New or unreadable log, started from the leaderboards as they are
+            compact();
+        }
+        else
+        {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.truncate(end);
+            channel.position(end);
+            syncedEnd = end;
+        }
+        System.out.println("Recovered " + rankings.getAllTime().size() + " results in "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Replay the records of a log into the leaderboards.
+     * @param log The content of the log.
+     * @return The end of the valid records, or -1 if the content is not a results log.
+     */
+    private int load(ByteBuffer log)
+    {
+        if(log.limit() < FILE_HEADER_SIZE || log.getInt(0) != MAGIC)
+        {
+            System.out.println("Results log " + path + " is not a results log, replaced.");
+            return -1;
+        }
+        int offset = FILE_HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        while(offset + RECORD_HEADER_SIZE <= log.limit())
+        {
+            int length = log.getInt(offset);
+            if(length < PAYLOAD_HEADER_SIZE || length > log.limit() - offset - RECORD_HEADER_SIZE)
+            {
+                break;
+            }
+            ByteBuffer payload = log.slice(offset + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if((int)crc.getValue() != log.getInt(offset + 4))
+            {
+                break;
+            }
+            // The best times do not depend on the order, the boards of ended periods ignore theirs
+            rankings.record(decode(payload));
+            numberRecords++;
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        if(offset + RECORD_HEADER_SIZE <= log.limit())
+        {
+            System.out.println("Results log truncated after " + numberRecords + " records.");
+        }
+        return offset;
+    }
+
+    /**
+     * Start the background thread writing the results.
+     * @implNote Group commit: the thread writes every result queued while the previous
+     * batch was synced, then syncs them all at once. A batch that failed is kept and written
+     * again, with the results queued meanwhile.
+     */
+    public void start()
+    {
+        Thread writer = new Thread(() ->
+        {
+            List<Leaderboard.Entry> batch = new ArrayList<>();
+            while(true)
+            {
+                try
+                {
+                    if(batch.isEmpty())
+                    {
+                        batch.add(pending.take());
+                    }
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                pending.drainTo(batch, Math.max(0, MAX_BATCH - batch.size()));
+                try
+                {
+                    write(batch);
+                    batch.clear();
+                    if(numberRecords > (long)rankings.countResults() * COMPACTION_RATIO + COMPACTION_MARGIN)
+                    {
+                        compact();
+                    }
+                }
+                catch(IOException e)
+                {
+                    System.out.println("Results log write failed, " + batch.size() + " results kept: "
+                        + e.getMessage());
+                    try
+                    {
+                        Thread.sleep(RETRY_MILLIS);
+                    }
+                    catch(InterruptedException interrupted)
+                    {
+                        return;
+                    }
+                }
+            }
+        }, "results-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Record a result.
+     * @param entry The result, already in the leaderboards.
+     * @implNote Only queued, the result reaches the disk with the next batch.
+     */
+    public void append(Leaderboard.Entry entry)
+    {
+        pending.add(entry);
+    }
+
+    /**
+     * Write a batch of results and sync them.
+     * @param batch The results.
+     * @throws IOException If an I/O error occurs, the batch may be partly written.
+     * @implNote What a failed batch left after the last synced record is cut off first, so a
+     * torn record never hides the records after it on recovery.
+     */
+    private void write(List<Leaderboard.Entry> batch) throws IOException
+    {
+        if(channel.position() != syncedEnd)
+        {
+            channel.truncate(syncedEnd);
+            channel.position(syncedEnd);
+        }
+        ByteBuffer records = encode(batch);
+        while(records.hasRemaining())
+        {
+            channel.write(records);
+        }
+        channel.force(false);
+        syncedEnd = channel.position();
+        numberRecords += batch.size();
+        numberSyncs++;
+    }
+
+    /**
+     * Rewrite the log with the results still on a board, the best time of each player on each.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The new log replaces the old one atomically once written and synced, a result
+     * queued meanwhile is written to the new log.
+     */
+    private void compact() throws IOException
+    {
+        List<Leaderboard.Entry> entries = new ArrayList<>(rankings.getResults());
+        Path compactPath = getCompactPath();
+        // Truncated, a log left by a failed compaction is overwritten
+        FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        boolean compacted = false;
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).flip();
+            compactChannel.write(header);
+            ByteBuffer records = encode(entries);
+            while(records.hasRemaining())
+            {
+                compactChannel.write(records);
+            }
+            compactChannel.force(true);
+            Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            compacted = true;
+        }
+        finally
+        {
+            if(!compacted)
+            {
+                // The old log is still the log, the next compaction starts over
+                discard(compactChannel, compactPath);
+            }
+        }
+        if(channel != null)
+        {
+            channel.close();
+        }
+        channel = compactChannel;
+        syncedEnd = compactChannel.position();
+        numberRecords = entries.size();
+        numberCompactions++;
+    }
+
+    /**
+     * Close and delete the new log of a failed compaction.
+     * @param compactChannel The channel of the new log.
+     * @param compactPath The path of the new log.
+     */
+    private static void discard(FileChannel compactChannel, Path compactPath)
+    {
+        try
+        {
+            compactChannel.close();
+            Files.deleteIfExists(compactPath);
+        }
+        catch(IOException e)
+        {
+            System.out.println("Failed to delete " + compactPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encode results as records.
+     * @param entries The results.
+     * @return The records, ready to be written.
+     */
+    private static ByteBuffer encode(List<Leaderboard.Entry> entries)
+    {
+        List<byte[]> names = new ArrayList<>(entries.size());
+        int size = 0;
+        for(Leaderboard.Entry entry : entries)
+        {
+            byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE + name.length;
+        }
+        ByteBuffer records = ByteBuffer.allocate(size);
+        CRC32C crc = new CRC32C();
+        for(int i = 0; i < entries.size(); i++)
+        {
+            Leaderboard.Entry entry = entries.get(i);
+            byte[] name = names.get(i);
+            int start = records.position();
+            records.position(start + RECORD_HEADER_SIZE);
+            records.putLong(entry.timestamp());
+            records.putLong(entry.time());
+            records.putShort(entry.gridSize());
+            records.put((byte)entry.mode().ordinal());
+            records.putShort((short)name.length);
+            records.put(name);
+            int length = records.position() - start - RECORD_HEADER_SIZE;
+            crc.reset();
+            crc.update(records.slice(start + RECORD_HEADER_SIZE, length));
+            records.putInt(start, length);
+            records.putInt(start + 4, (int)crc.getValue());
+        }
+        return records.flip();
+    }
+
+    /**
+     * Decode the payload of a record.
+     * @param payload The payload.
+     * @return The result.
+     */
+    private static Leaderboard.Entry decode(ByteBuffer payload)
+    {
+        long timestamp = payload.getLong();
+        long time = payload.getLong();
+        short gridSize = payload.getShort();
+        SessionInfo.Mode mode = SessionInfo.Mode.values()[payload.get()];
+        byte[] name = new byte[payload.getShort() & 0xFFFF];
+        payload.get(name);
+        return new Leaderboard.Entry(new String(name, StandardCharsets.UTF_8), time, gridSize, mode, timestamp);
+    }
+
+    /**
+     * Get the path of the log being compacted.
+     * @return The path next to the log.
+     */
+    private Path getCompactPath()
+    {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    /**
+     * Get the log counters.
+     * @return The number of records in the log, syncs and compactions.
+     * @implNote Read without synchronization, for the logs only.
+     */
+    public String getStatistics()
+    {
+        return "records: " + numberRecords + ", syncs: " + numberSyncs + ", compactions: " + numberCompactions;
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class SessionExpiry
+{
+    private static final long TICK_MILLIS = 1000;
+    // Number of slots of the wheel, a power of two
+    private static final int WHEEL_SIZE = 1024;
+
+    private final Map<SessionId, SessionInfo> sessions;
+    private final SessionStore sessionStore;
+    private final long timeToLive;
+    // Slot i holds the sessions whose deadline falls on a tick equal to i modulo WHEEL_SIZE,
+    // the deadlines more than one turn away are put back when their slot is swept
+    private final List<Queue<SessionId>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private volatile long lastSweptTick;
+    private final LongAdder numberScheduled = new LongAdder();
+    private final LongAdder numberExpired = new LongAdder();
+    private volatile Consumer<SessionId> listener = sessionId -> {};
+
+    /**
+     * Constructor for the SessionExpiry class.
+     * @param sessions The sessions in use on this node.
+     * @param sessionStore The store of all the sessions.
+     * @param timeToLive The lifetime of a session, in milliseconds.
+     */
+    public SessionExpiry(Map<SessionId, SessionInfo> sessions, SessionStore sessionStore, long timeToLive)
+    {
+        this.sessions = sessions;
+        this.sessionStore = sessionStore;
+        this.timeToLive = timeToLive;
+        for(int i = 0; i < WHEEL_SIZE; i++)
+        {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        lastSweptTick = System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    /**
+     * Start the background thread removing the expired sessions.
+     */
+    public void start()
+    {
+        Thread sweeper = new Thread(() ->
+        {
+            while(true)
+            {
+                try
+                {
+                    Thread.sleep(TICK_MILLIS);
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                sweep(System.currentTimeMillis());
+            }
+        }, "session-expiry");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * Set the action run after a session expired, e.g. to release what it holds.
+     * @param listener The action, given the expired session ID.
+     */
+    public void onExpiry(Consumer<SessionId> listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Schedule the expiry of a session.
+     * @param sessionId The session ID.
+     * @param deadline The time at which the session expires, in milliseconds.
+     * @implNote O(1), the session is only checked once its slot is swept.
+     */
+    public void schedule(SessionId sessionId, long deadline)
+    {
+        // A deadline in a tick already swept goes to the next tick
+        long tick = Math.max(deadline / TICK_MILLIS, lastSweptTick + 1);
+        wheel.get((int)(tick & (WHEEL_SIZE - 1))).add(sessionId);
+        numberScheduled.increment();
+    }
+
+    /**
+     * Remove the sessions whose deadline passed.
+     * @param now The current time, in milliseconds.
+     */
+    private void sweep(long now)
+    {
+        long nowTick = now / TICK_MILLIS;
+        long expiredBefore = numberExpired.sum();
+        // Catch up with the ticks missed if the thread was late, one turn at most
+        for(long tick = Math.max(lastSweptTick + 1, nowTick - WHEEL_SIZE + 1); tick <= nowTick; tick++)
+        {
+            Queue<SessionId> slot = wheel.get((int)(tick & (WHEEL_SIZE - 1)));
+            List<SessionId> due = new ArrayList<>();
+            SessionId sessionId;
+            while((sessionId = slot.poll()) != null)
+            {
+                due.add(sessionId);
+            }
+            lastSweptTick = tick;
+            for(SessionId candidate : due)
+            {
+                expire(candidate, now);
+            }
+        }
+        long expired = numberExpired.sum() - expiredBefore;
+        if(expired > 0)
+        {
+            System.out.println(expired + " sessions expired, " + getStatistics());
+        }
+    }
+
+    /**
+     * Remove a session if its deadline passed, schedule it again otherwise.
+     * @param sessionId The session ID.
+     * @param now The current time, in milliseconds.
+     */
+    private void expire(SessionId sessionId, long now)
+    {
+        SessionInfo sessionInfo = sessions.get(sessionId);
+        // Idle sessions are read without being moved back to the heap
+        long lastActivity = sessionInfo != null ? sessionInfo.getLastActivity()
+            : sessionStore.getLastActivity(sessionId);
+        // Already removed, e.g. at the end of the game
+        if(lastActivity < 0)
+        {
+            return;
+        }
+        // Sliding expiry: the activities since the scheduling push back the deadline
+        long deadline = lastActivity + timeToLive;
+        if(deadline > now)
+        {
+            schedule(sessionId, deadline);
+        }
+        // The store only drops the session if no other node used it meanwhile
+        else if((sessionInfo != null && sessions.remove(sessionId, sessionInfo))
+            | sessionStore.expire(sessionId, now - timeToLive))
+        {
+            numberExpired.increment();
+            listener.accept(sessionId);
+        }
+    }
+
+    /**
+     * Get the expiry counters.
+     * @return The number of scheduled checks and expired sessions.
+     */
+    public String getStatistics()
+    {
+        return "scheduled: " + numberScheduled.sum() + ", expired: " + numberExpired.sum();
+    }
+}
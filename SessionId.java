@@ -0,0 +1,122 @@
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A 128-bit session ID.
+ * @param high The upper 64 bits.
+ * @param low The lower 64 bits.
+ */
+public record SessionId(long high, long low)
+{
+    // Number of characters of a token: 128 bits in base64url, without padding
+    public static final int TOKEN_LENGTH = 22;
+    private static final char[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] DIGITS = new byte[128];
+
+    static
+    {
+        Arrays.fill(DIGITS, (byte)-1);
+        for(int i = 0; i < ALPHABET.length; i++)
+        {
+            DIGITS[ALPHABET[i]] = (byte)i;
+        }
+    }
+
+    /**
+     * Random generator of a thread, with its reusable output.
+     */
+    private static class Generator
+    {
+        private final SecureRandom random;
+        private final byte[] bytes = new byte[16];
+
+        private Generator()
+        {
+            SecureRandom instance;
+            try
+            {
+                // Seeded once from the system, then independent from the other threads
+                instance = SecureRandom.getInstance("DRBG");
+            }
+            catch(NoSuchAlgorithmException e)
+            {
+                instance = new SecureRandom();
+            }
+            random = instance;
+        }
+    }
+
+    private static final ThreadLocal<Generator> generators = ThreadLocal.withInitial(Generator::new);
+
+    /**
+     * Draw a new session ID.
+     * @return The session ID.
+     * @implNote Each thread has its own generator, so bursts of new sessions don't contend.
+     */
+    public static SessionId generate()
+    {
+        Generator generator = generators.get();
+        generator.random.nextBytes(generator.bytes);
+        ByteBuffer bytes = ByteBuffer.wrap(generator.bytes);
+        return new SessionId(bytes.getLong(0), bytes.getLong(8));
+    }
+
+    /**
+     * Parse a token.
+     * @param token The token, as in a cookie.
+     * @return The session ID, or null if the token is not a canonical token.
+     */
+    public static SessionId parse(CharSequence token)
+    {
+        if(token == null || token.length() != TOKEN_LENGTH)
+        {
+            return null;
+        }
+        long high = 0;
+        long low = 0;
+        // 21 digits of 6 bits, then the 2 upper bits of the last digit, its 4 lower bits are zero
+        for(int i = 0; i < TOKEN_LENGTH; i++)
+        {
+            char c = token.charAt(i);
+            int digit = c < DIGITS.length ? DIGITS[c] : -1;
+            if(digit < 0)
+            {
+                return null;
+            }
+            int shift = i < TOKEN_LENGTH - 1 ? 6 : 2;
+            if(shift == 2)
+            {
+                if((digit & 0xF) != 0)
+                {
+                    return null;
+                }
+                digit >>>= 4;
+            }
+            high = (high << shift) | (low >>> (64 - shift));
+            low = (low << shift) | digit;
+        }
+        return new SessionId(high, low);
+    }
+
+    /**
+     * Get the token of the session ID.
+     * @return The 22 base64url characters, as sent in the cookie.
+     */
+    @Override
+    public String toString()
+    {
+        char[] token = new char[TOKEN_LENGTH];
+        // Digit i holds bits 127 - 6i down to 122 - 6i, the last one is padded with zeros
+        for(int i = 0; i < TOKEN_LENGTH - 1; i++)
+        {
+            int shift = 122 - 6 * i;
+            long bits = shift >= 64 ? high >>> (shift - 64) : (low >>> shift) | (high << (64 - shift));
+            token[i] = ALPHABET[(int)bits & 0x3F];
+        }
+        token[TOKEN_LENGTH - 1] = ALPHABET[((int)low & 0x3) << 4];
+        return new String(token);
+    }
+}
@@ -1,13 +1,51 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
 public class SessionInfo 
 {
+    /**
+     * Game mode of the session.
+     * @implNote Can only be changed before the first move.
+     */
+    public enum Mode{ CLASSIC, NO_GUESS, INFINITE }
+
+    /**
+     * A connection attached to the session.
+     * @param webSocket The WebSocket of the connection.
+     * @param viewport The window of the board shown to the connection.
+     */
+    public record Connection(WebSocket webSocket, Viewport viewport) {}
+
     private long timestamp;
+    // Written on every command, read by the session expiry
+    private volatile long lastActivity;
+    // Start of the game timer, kept across reconnections and restarts
+    private long timerStart = 0;
+    private Mode mode = Mode.CLASSIC;
+    private short gridSize;
+    // Created on the first move, most sessions never play
     private Grid currentGame;
+    private InfiniteBoard infiniteGame;
+    // Snapshot of the game of a recovered session, decoded on first access
+    private byte[] pendingGame;
     private String playerName;
+    // Connections using the session, only changed while the session map entry is locked
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    // Set once the end of the game was handled
+    private boolean finished = false;
+    // Version of the session store the session was last read from or written to
+    private long storeVersion = 0;
+    // Order of the boards rendered for the connections, they may be sent out of order
+    private long boardSequence = 0;
 
-    public SessionInfo(long timestamp, Grid currentGame)
+    public SessionInfo(long timestamp, short gridSize)
     {
         this.timestamp = timestamp;
-        this.currentGame = currentGame;
+        this.lastActivity = timestamp;
+        this.gridSize = gridSize;
         // Default player name
         playerName = "Anonymous";
     }
@@ -17,11 +55,181 @@ public class SessionInfo
         return timestamp;
     }
 
+    public long getLastActivity()
+    {
+        return lastActivity;
+    }
+
+    /**
+     * Record an activity of the session, which pushes back its expiry.
+     * @implNote A single volatile write, the session expiry reads it when the old deadline is due.
+     */
+    public void touch()
+    {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Start the game timer, unless it is already running.
+     * @return The start of the timer, in milliseconds.
+     */
+    public long startTimer()
+    {
+        if(timerStart == 0)
+        {
+            timerStart = System.currentTimeMillis();
+        }
+        return timerStart;
+    }
+
+    /**
+     * Attach a connection to the session.
+     * @param connection The opening connection.
+     */
+    public void attach(Connection connection)
+    {
+        connections.add(connection);
+    }
+
+    /**
+     * Detach a connection from the session.
+     * @param connection The closing connection.
+     * @return The number of connections left.
+     */
+    public int detach(Connection connection)
+    {
+        connections.remove(connection);
+        return connections.size();
+    }
+
+    /**
+     * Number a board rendered for a connection.
+     * @return The sequence of the board, increasing.
+     * @implNote Called with the session locked.
+     */
+    public long nextBoardSequence()
+    {
+        return ++boardSequence;
+    }
+
+    /**
+     * Get the connections of the session.
+     * @return The connections, safe to iterate while they change.
+     */
+    public List<Connection> getConnections()
+    {
+        return connections;
+    }
+
+    /**
+     * Mark the end of the game as handled.
+     * @return True the first time, false afterwards.
+     * @implNote Called with the session locked, only one connection records the score.
+     */
+    public boolean finish()
+    {
+        if(finished)
+        {
+            return false;
+        }
+        finished = true;
+        return true;
+    }
+
+    public long getStoreVersion()
+    {
+        return storeVersion;
+    }
+
+    public void setStoreVersion(long storeVersion)
+    {
+        this.storeVersion = storeVersion;
+    }
+
+    public short getGridSize()
+    {
+        return gridSize;
+    }
+
+    /**
+     * Get the current game of the session.
+     * @return The current game, or null if no move was played yet.
+     */
     public Grid getCurrentGame()
     {
+        restoreGame();
         return currentGame;
     }
 
+    /**
+     * Get the current game of the session, creating it on the first move.
+     * @return The current game.
+     */
+    public Grid getOrCreateGame()
+    {
+        restoreGame();
+        if(currentGame == null)
+        {
+            currentGame = new Grid(gridSize, mode == Mode.NO_GUESS);
+        }
+        return currentGame;
+    }
+
+    /**
+     * Get the infinite game of the session, creating it on the first move.
+     * @return The infinite game.
+     * @implNote The mines are derived from a seed drawn at creation.
+     */
+    public InfiniteBoard getOrCreateInfiniteGame()
+    {
+        restoreGame();
+        if(infiniteGame == null)
+        {
+            infiniteGame = new InfiniteBoard(ThreadLocalRandom.current().nextLong());
+        }
+        return infiniteGame;
+    }
+
+    public InfiniteBoard getInfiniteGame()
+    {
+        restoreGame();
+        return infiniteGame;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Set the game mode of the session.
+     * @param mode The new game mode.
+     * @return True if the mode was set, false if a game was already created.
+     */
+    public boolean setMode(Mode mode)
+    {
+        if(currentGame != null || infiniteGame != null || pendingGame != null)
+        {
+            return false;
+        }
+        this.mode = mode;
+        return true;
+    }
+
+    /**
+     * Is the game of the session over?
+     * @return True if the game is won or lost, false otherwise.
+     */
+    public boolean isGameOver()
+    {
+        restoreGame();
+        if(mode == Mode.INFINITE)
+        {
+            return infiniteGame != null && infiniteGame.isLose();
+        }
+        return currentGame != null && (currentGame.isWin() || currentGame.isLose());
+    }
+
     public String getPlayerName()
     {
         return playerName;
@@ -35,5 +243,144 @@ public class SessionInfo
     public void setCurrentGame(Grid currentGame)
     {
         this.currentGame = currentGame;
+        pendingGame = null;
+    }
+
+    /**
+     * Get the size of the snapshot of the session.
+     * @return The number of bytes written by writeSnapshot.
+     */
+    public int getSnapshotSize()
+    {
+        int size = 8 + 8 + 8 + 1 + 2 + 2 + playerName.getBytes(StandardCharsets.UTF_8).length + 1;
+        if(pendingGame != null)
+        {
+            size += pendingGame.length - 1;
+        }
+        else if(currentGame != null)
+        {
+            size += currentGame.getSnapshotSize();
+        }
+        else if(infiniteGame != null)
+        {
+            size += infiniteGame.getSnapshotSize();
+        }
+        return size;
+    }
+
+    /**
+     * Write the state of the session and of its game.
+     * @param buffer The buffer receiving the snapshot.
+     */
+    public void writeSnapshot(ByteBuffer buffer)
+    {
+        byte[] name = playerName.getBytes(StandardCharsets.UTF_8);
+        buffer.putLong(timestamp);
+        buffer.putLong(lastActivity);
+        buffer.putLong(timerStart);
+        buffer.put((byte)mode.ordinal());
+        buffer.putShort(gridSize);
+        buffer.putShort((short)name.length);
+        buffer.put(name);
+        // Kind of game that follows: none, grid or infinite board
+        if(pendingGame != null)
+        {
+            buffer.put(pendingGame);
+        }
+        else if(currentGame != null)
+        {
+            buffer.put((byte)1);
+            currentGame.writeSnapshot(buffer);
+        }
+        else if(infiniteGame != null)
+        {
+            buffer.put((byte)2);
+            infiniteGame.writeSnapshot(buffer);
+        }
+        else
+        {
+            buffer.put((byte)0);
+        }
+    }
+
+    /**
+     * Encode the state of the session and of its game.
+     * @return The snapshot, ready to be read.
+     */
+    public ByteBuffer toSnapshot()
+    {
+        ByteBuffer snapshot = ByteBuffer.allocate(getSnapshotSize());
+        writeSnapshot(snapshot);
+        return snapshot.flip();
+    }
+
+    /**
+     * Read the last activity of a session from its snapshot.
+     * @param snapshot The snapshot, see writeSnapshot.
+     * @return The last activity, in milliseconds.
+     */
+    public static long getSnapshotLastActivity(ByteBuffer snapshot)
+    {
+        return snapshot.getLong(snapshot.position() + 8);
+    }
+
+    /**
+     * Rebuild a session from its snapshot.
+     * @param buffer The buffer holding the snapshot, see writeSnapshot.
+     * @return The session.
+     * @implNote The game is kept encoded until the player comes back, most recovered
+     * sessions are never resumed.
+     */
+    public static SessionInfo readSnapshot(ByteBuffer buffer)
+    {
+        SessionInfo sessionInfo = new SessionInfo(0, (short)0);
+        sessionInfo.restore(buffer);
+        return sessionInfo;
+    }
+
+    /**
+     * Replace the state of the session with a snapshot, e.g. one written by another node.
+     * @param buffer The buffer holding the snapshot, see writeSnapshot.
+     * @implNote The connections are kept, the caller holds the session lock.
+     */
+    public void restore(ByteBuffer buffer)
+    {
+        timestamp = buffer.getLong();
+        lastActivity = buffer.getLong();
+        timerStart = buffer.getLong();
+        mode = Mode.values()[buffer.get()];
+        gridSize = buffer.getShort();
+        byte[] name = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(name);
+        playerName = new String(name, StandardCharsets.UTF_8);
+        currentGame = null;
+        infiniteGame = null;
+        pendingGame = null;
+        if(buffer.get(buffer.position()) != 0)
+        {
+            pendingGame = new byte[buffer.remaining()];
+            buffer.get(pendingGame);
+        }
+    }
+
+    /**
+     * Decode the game of a recovered session.
+     */
+    private void restoreGame()
+    {
+        if(pendingGame == null)
+        {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pendingGame);
+        pendingGame = null;
+        if(buffer.get() == 1)
+        {
+            currentGame = Grid.readSnapshot(buffer);
+        }
+        else
+        {
+            infiniteGame = InfiniteBoard.readSnapshot(buffer);
+        }
     }
 }
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+public class SessionJournal
+{
+    // "MSJ1" at the start of the file
+    private static final int MAGIC = 0x4D534A31;
+    private static final int FILE_HEADER_SIZE = 4;
+    // Length of the payload and its checksum before each record
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long FLUSH_MILLIS = 1000;
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("minesweeper.journal.size", 64 << 20);
+
+    // Kinds of record: the snapshot of a session, its removal and a leaderboard score,
+    // the scores are only read from older journals, the results log keeps them now
+    private static final byte SESSION = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SCORE = 3;
+
+    private final Path path;
+    private final SessionStore sessionStore;
+    // False when the store keeps the sessions itself, nothing is journaled then
+    private final boolean journalSessions;
+    private final Leaderboard scores;
+    private final long timeToLive;
+    private final Object lock = new Object();
+    // Guarded by lock
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+    private int capacity = DEFAULT_CAPACITY;
+    private int position;
+    private int flushedPosition;
+    private long numberAppended = 0;
+    private long numberCompactions = 0;
+
+    /**
+     * Constructor for the SessionJournal class.
+     * @param path The journal file.
+     * @param sessionStore The store of the sessions, filled on recovery, which holds the last
+     * state of every session.
+     * @param scores The leaderboard, filled with the scores of an older journal on recovery.
+     * @param timeToLive The lifetime of an inactive session, in milliseconds.
+     */
+    public SessionJournal(Path path, SessionStore sessionStore, Leaderboard scores, long timeToLive)
+    {
+        this.path = path;
+        this.sessionStore = sessionStore;
+        this.journalSessions = !sessionStore.isPersistent();
+        this.scores = scores;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Load the sessions and scores of the journal and reopen it for the appends.
+     * @throws IOException If an I/O error occurs.
+     * @implNote The records are checked and decoded in parallel, the last record of
+     * a session wins. The journal ends at the first torn or corrupted record, the
+     * appends resume there.
+     */
+    public void recover() throws IOException
+    {
+        long start = System.nanoTime();
+        // A compaction interrupted by a crash left the previous journal in place
+        Files.deleteIfExists(getCompactPath());
+        synchronized(lock)
+        {
+            if(Files.exists(path))
+            {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                capacity = (int)Math.max(capacity, Math.min(channel.size(), Integer.MAX_VALUE));
+                journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                position = load(journal);
+                flushedPosition = position;
+            }
+            if(position < FILE_HEADER_SIZE)
+            {
+                compact();
+            }
+        }
+        System.out.println("Recovered " + sessionStore.size() + " sessions in " 
+            + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Decode the records of a journal.
+     * @param buffer The content of the journal, the records after the valid ones are erased.
+     * @return The end of the valid records, or -1 if the content is not a journal.
+     */
+    private int load(ByteBuffer buffer)
+    {
+        if(buffer.getInt(0) != MAGIC)
+        {
+            System.out.println("Journal " + path + " is not a session journal, replaced.");
+            return -1;
+        }
+
+        // Walk the record headers, the payloads are checked below
+        int[] offsets = new int[1024];
+        int numberRecords = 0;
+        int offset = FILE_HEADER_SIZE;
+        while(offset + RECORD_HEADER_SIZE <= buffer.limit())
+        {
+            int length = buffer.getInt(offset);
+            if(length <= 0 || length > buffer.limit() - offset - RECORD_HEADER_SIZE)
+            {
+                break;
+            }
+            if(numberRecords == offsets.length)
+            {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[numberRecords++] = offset;
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        int[] records = offsets;
+        int numberWalked = numberRecords;
+
+        // A crash may leave a torn record, it and everything after it are dropped
+        numberRecords = IntStream.range(0, numberWalked).parallel()
+            .filter(k -> !isValid(buffer, records[k]))
+            .min().orElse(numberWalked);
+        int end = numberRecords < numberWalked ? records[numberRecords] : offset;
+        if(numberRecords < numberWalked)
+        {
+            System.out.println("Journal truncated after " + numberRecords + " records.");
+            // Erase the dropped records so the appends never run into them
+            for(int k = end; k < offset; k++)
+            {
+                buffer.put(k, (byte)0);
+            }
+        }
+
+        // Keep the last record of each session and player
+        Map<SessionId, Integer> lastSessionRecords = new HashMap<>();
+        for(int k = 0; k < numberRecords; k++)
+        {
+            ByteBuffer payload = getPayload(buffer, records[k]);
+            byte type = payload.get();
+            if(type == SCORE)
+            {
+                scores.put(new Leaderboard.Entry(readKey(payload), payload.getLong(), (short)0, 
+                    SessionInfo.Mode.CLASSIC, 0));
+            }
+            else
+            {
+                SessionId sessionId = readSessionId(payload);
+                if(sessionId != null)
+                {
+                    lastSessionRecords.put(sessionId, k);
+                }
+            }
+        }
+
+        // Move the live sessions to the store as they are, dropping the expired ones
+        if(journalSessions)
+        {
+            long now = System.currentTimeMillis();
+            lastSessionRecords.entrySet().parallelStream().forEach(entry ->
+            {
+                ByteBuffer payload = getPayload(buffer, records[entry.getValue()]);
+                if(payload.get() != SESSION)
+                {
+                    return;
+                }
+                SessionId sessionId = readSessionId(payload);
+                long lastActivity = SessionInfo.getSnapshotLastActivity(payload);
+                if(lastActivity + timeToLive > now)
+                {
+                    sessionStore.put(sessionId, lastActivity, payload);
+                }
+            });
+        }
+        return end;
+    }
+
+    /**
+     * Check the checksum of a record.
+     * @param buffer The content of the journal.
+     * @param offset The offset of the record.
+     * @return True if the payload matches its checksum, false otherwise.
+     */
+    private static boolean isValid(ByteBuffer buffer, int offset)
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(getPayload(buffer, offset));
+        return (int)crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    /**
+     * Get the payload of a record.
+     * @param buffer The content of the journal.
+     * @param offset The offset of the record.
+     * @return A view over the payload.
+     */
+    private static ByteBuffer getPayload(ByteBuffer buffer, int offset)
+    {
+        int length = buffer.getInt(offset);
+        return buffer.slice(offset + RECORD_HEADER_SIZE, length);
+    }
+
+    /**
+     * Read the session ID at the start of a payload.
+     * @param payload The payload, after the record type.
+     * @return The session ID, or null for the string IDs of older journals.
+     */
+    private static SessionId readSessionId(ByteBuffer payload)
+    {
+        int length = payload.getShort() & 0xFFFF;
+        if(length != 16)
+        {
+            payload.position(payload.position() + length);
+            return null;
+        }
+        return new SessionId(payload.getLong(), payload.getLong());
+    }
+
+    /**
+     * Read the player name at the start of a payload.
+     * @param payload The payload, after the record type.
+     * @return The key of the record.
+     */
+    private static String readKey(ByteBuffer payload)
+    {
+        byte[] key = new byte[payload.getShort() & 0xFFFF];
+        payload.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Start the background thread flushing the journal to the disk.
+     * @implNote The journal is written through the page cache, so a crash of the
+     * process loses nothing and a crash of the machine loses at most FLUSH_MILLIS.
+     */
+    public void start()
+    {
+        Thread flusher = new Thread(() ->
+        {
+            while(true)
+            {
+                try
+                {
+                    Thread.sleep(FLUSH_MILLIS);
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                flush();
+            }
+        }, "session-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Force the records appended since the last flush to the disk.
+     */
+    private void flush()
+    {
+        synchronized(lock)
+        {
+            if(position > flushedPosition)
+            {
+                journal.force(flushedPosition, position - flushedPosition);
+                flushedPosition = position;
+            }
+        }
+    }
+
+    /**
+     * Record the current state of a session.
+     * @param sessionId The session ID.
+     * @param snapshot The snapshot of the session, as written to the session store.
+     */
+    public void save(SessionId sessionId, ByteBuffer snapshot)
+    {
+        if(!journalSessions)
+        {
+            return;
+        }
+        ByteBuffer payload = allocatePayload(SESSION, sessionId, snapshot.remaining());
+        append(payload.put(snapshot.duplicate()).flip());
+    }
+
+    /**
+     * Record the removal of a session.
+     * @param sessionId The session ID.
+     */
+    public void remove(SessionId sessionId)
+    {
+        if(!journalSessions)
+        {
+            return;
+        }
+        ByteBuffer payload = allocatePayload(REMOVE, sessionId, 0);
+        append(payload.flip());
+    }
+
+    /**
+     * Allocate the payload of a session record and write its type and session ID.
+     * @param type The kind of record.
+     * @param sessionId The session ID, written as its 16 bytes.
+     * @param bodySize The number of bytes following the session ID.
+     * @return The payload, positioned after the session ID.
+     */
+    private static ByteBuffer allocatePayload(byte type, SessionId sessionId, int bodySize)
+    {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 2 + 16 + bodySize);
+        payload.put(type);
+        payload.putShort((short)16);
+        payload.putLong(sessionId.high());
+        payload.putLong(sessionId.low());
+        return payload;
+    }
+
+    /**
+     * Append a record to the journal, compacting it first if it is full.
+     * @param payload The payload of the record.
+     * @implNote The payload and its checksum are computed before taking the lock,
+     * only the copy into the mapped file is serialized.
+     */
+    private void append(ByteBuffer payload)
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        int checksum = (int)crc.getValue();
+        int length = payload.remaining();
+        synchronized(lock)
+        {
+            try
+            {
+                if(position + RECORD_HEADER_SIZE + length > capacity)
+                {
+                    compact();
+                }
+                if(position + RECORD_HEADER_SIZE + length > capacity)
+                {
+                    System.out.println("Journal record of " + length + " bytes dropped, journal full.");
+                    return;
+                }
+                journal.putInt(position + 4, checksum);
+                journal.put(position + RECORD_HEADER_SIZE, payload, payload.position(), length);
+                // The length goes last, a record is only visible once complete
+                journal.putInt(position, length);
+                position += RECORD_HEADER_SIZE + length;
+                numberAppended++;
+            }
+            catch(IOException e)
+            {
+                System.out.println("Journal append failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal with the live sessions only.
+     * @throws IOException If an I/O error occurs.
+     * @implNote Called with the lock held: the appends wait for the new journal,
+     * so the record of a session appended after a move always follows its snapshot.
+     * The new journal replaces the old one atomically once written and flushed.
+     */
+    private void compact() throws IOException
+    {
+        List<ByteBuffer> payloads = new ArrayList<>();
+        long liveSize = FILE_HEADER_SIZE;
+        // Every change of a session is written to the store first, so the store is up to date
+        if(journalSessions)
+        {
+            sessionStore.forEach((sessionId, lastActivity, snapshot) ->
+            {
+                ByteBuffer payload = allocatePayload(SESSION, sessionId, snapshot.remaining());
+                payloads.add(payload.put(snapshot).flip());
+            });
+        }
+        for(ByteBuffer payload : payloads)
+        {
+            liveSize += RECORD_HEADER_SIZE + payload.remaining();
+        }
+        // Keep at least half of the journal free for the appends
+        while(liveSize > capacity / 2 && capacity <= Integer.MAX_VALUE / 2)
+        {
+            capacity *= 2;
+        }
+
+        Path compactPath = getCompactPath();
+        Files.deleteIfExists(compactPath);
+        FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer compactJournal = compactChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        compactJournal.putInt(0, MAGIC);
+        int compactPosition = FILE_HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        for(ByteBuffer payload : payloads)
+        {
+            crc.reset();
+            crc.update(payload.duplicate());
+            int length = payload.remaining();
+            compactJournal.putInt(compactPosition, length);
+            compactJournal.putInt(compactPosition + 4, (int)crc.getValue());
+            compactJournal.put(compactPosition + RECORD_HEADER_SIZE, payload, payload.position(), length);
+            compactPosition += RECORD_HEADER_SIZE + length;
+        }
+        compactJournal.force();
+        Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if(channel != null)
+        {
+            channel.close();
+        }
+        channel = compactChannel;
+        journal = compactJournal;
+        position = compactPosition;
+        flushedPosition = compactPosition;
+        numberCompactions++;
+    }
+
+    /**
+     * Get the path of the journal being compacted.
+     * @return The path next to the journal.
+     */
+    private Path getCompactPath()
+    {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    /**
+     * Get the journal counters.
+     * @return The number of appended records, compactions and bytes used.
+     */
+    public String getStatistics()
+    {
+        synchronized(lock)
+        {
+            return "appended: " + numberAppended + ", compactions: " + numberCompactions
+                + ", used: " + position + "/" + capacity;
+        }
+    }
+}
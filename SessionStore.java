@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Storage of the session snapshots, where a session is read from when a connection opens
+ * and written to after each change.
+ * @implNote Each write gives the session a new version, a node only overwrites the version
+ * it read, so two nodes serving the same session never silently lose a move.
+ */
+public interface SessionStore
+{
+    /**
+     * A stored session.
+     * @param version The version of the snapshot, greater than 0.
+     * @param lastActivity The last activity of the session, in milliseconds.
+     * @param snapshot The snapshot of the session, see SessionInfo.writeSnapshot.
+     */
+    record Entry(long version, long lastActivity, ByteBuffer snapshot) {}
+
+    /**
+     * Visitor of the stored sessions.
+     */
+    interface Visitor
+    {
+        /**
+         * Visit a stored session.
+         * @param sessionId The session ID.
+         * @param lastActivity The last activity of the session, in milliseconds.
+         * @param snapshot The snapshot of the session, only valid during the call.
+         */
+        void visit(SessionId sessionId, long lastActivity, ByteBuffer snapshot);
+    }
+
+    /**
+     * Read a session.
+     * @param sessionId The session ID.
+     * @return The stored session, its snapshot on the heap, or null if it is not stored.
+     */
+    Entry get(SessionId sessionId);
+
+    /**
+     * Get the last activity of a session, without reading its snapshot.
+     * @param sessionId The session ID.
+     * @return The last activity in milliseconds, or -1 if the session is not stored.
+     */
+    long getLastActivity(SessionId sessionId);
+
+    /**
+     * Write a session, whatever its stored version.
+     * @param sessionId The session ID.
+     * @param lastActivity The last activity of the session, in milliseconds.
+     * @param snapshot The snapshot of the session, copied from its position to its limit.
+     * @return The new version, or -1 if the snapshot does not fit in the store.
+     */
+    long put(SessionId sessionId, long lastActivity, ByteBuffer snapshot);
+
+    /**
+     * Write a session if its stored version is the expected one.
+     * @param sessionId The session ID.
+     * @param expectedVersion The version the snapshot was derived from, 0 for a session not stored.
+     * @param lastActivity The last activity of the session, in milliseconds.
+     * @param snapshot The snapshot of the session, copied from its position to its limit.
+     * @return The new version, 0 if the stored version is another one, or -1 if the snapshot
+     * does not fit in the store.
+     */
+    long compareAndSet(SessionId sessionId, long expectedVersion, long lastActivity, ByteBuffer snapshot);
+
+    /**
+     * Record an activity of a stored session, without writing its snapshot or changing its version.
+     * @param sessionId The session ID.
+     * @param lastActivity The last activity of the session, in milliseconds.
+     * @return False if the session is not stored.
+     */
+    boolean touch(SessionId sessionId, long lastActivity);
+
+    /**
+     * Remove a session if it was inactive since a given time.
+     * @param sessionId The session ID.
+     * @param notAfter The removal only happens if the last activity is not after this time,
+     * Long.MAX_VALUE removes the session unconditionally.
+     * @return True if the session was removed.
+     */
+    boolean expire(SessionId sessionId, long notAfter);
+
+    /**
+     * Visit the stored sessions.
+     * @param visitor The visitor.
+     */
+    void forEach(Visitor visitor);
+
+    /**
+     * Get the number of stored sessions.
+     * @return The number of sessions.
+     */
+    int size();
+
+    /**
+     * Does the store keep the sessions across restarts by itself?
+     * @return True if the sessions survive a restart without the journal.
+     */
+    boolean isPersistent();
+
+    /**
+     * Get the store counters.
+     * @return A human readable summary.
+     */
+    String getStatistics();
+}
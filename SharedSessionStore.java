@@ -0,0 +1,446 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session store in a memory-mapped file shared by the server processes of a machine.
+ * @implNote The file is a hash table of fixed buckets, a session only lives in the slots of
+ * its bucket. A bucket is locked with a file lock, so the processes never see a half written
+ * session. Each process keeps the sessions it read or wrote in a near-cache, checked against
+ * the version in the file before use.
+ */
+public class SharedSessionStore implements SessionStore
+{
+    // "MSS1" at the start of the file, then the geometry of the table
+    private static final int MAGIC = 0x4D535331;
+    private static final int FILE_HEADER_SIZE = 64;
+    // Slot: key (16 bytes), version (8), last activity (8), length (4), padding (4), snapshot
+    private static final int SLOT_HEADER_SIZE = 40;
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+    // Only used when the file is created, the other processes read the geometry from the file
+    private static final int DEFAULT_NUMBER_BUCKETS = Integer.getInteger("minesweeper.store.buckets", 4096);
+    private static final int DEFAULT_SLOTS_PER_BUCKET = 16;
+    private static final int DEFAULT_SLOT_SIZE = Integer.getInteger("minesweeper.store.slot.size", 4096);
+    private static final int NEAR_CACHE_SIZE = Integer.getInteger("minesweeper.store.cache", 4096);
+    // Locks of the threads of this process, a file lock can't be held twice by the same process
+    private static final int NUMBER_LOCKS = 64;
+
+    /**
+     * A session read or written by this process.
+     * @param entry The session.
+     * @param offset The offset of its slot in the file.
+     */
+    private record Cached(Entry entry, int offset) {}
+
+    private final FileChannel channel;
+    private final MappedByteBuffer table;
+    private final int numberBuckets;
+    private final int slotsPerBucket;
+    private final int slotSize;
+    private final Object[] locks = new Object[NUMBER_LOCKS];
+    private final Map<SessionId, Cached> nearCache = new ConcurrentHashMap<>();
+    private final LongAdder numberHits = new LongAdder();
+    private final LongAdder numberMisses = new LongAdder();
+    private final LongAdder numberConflicts = new LongAdder();
+
+    /**
+     * Constructor for the SharedSessionStore class, creating the file if it does not exist.
+     * @param path The file shared by the processes.
+     * @throws IOException If an I/O error occurs.
+     */
+    public SharedSessionStore(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        // The first process creates the table, the others wait for it and use its geometry
+        FileLock lock = channel.lock(0, FILE_HEADER_SIZE, false);
+        try
+        {
+            channel.read(header, 0);
+            if(header.getInt(0) != MAGIC)
+            {
+                header.clear();
+                header.putInt(MAGIC).putInt(DEFAULT_NUMBER_BUCKETS).putInt(DEFAULT_SLOTS_PER_BUCKET)
+                    .putInt(DEFAULT_SLOT_SIZE).clear();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+            }
+        }
+        finally
+        {
+            lock.release();
+        }
+        numberBuckets = header.getInt(4);
+        slotsPerBucket = header.getInt(8);
+        slotSize = header.getInt(12);
+        long size = FILE_HEADER_SIZE + (long)numberBuckets * slotsPerBucket * slotSize;
+        if(size > Integer.MAX_VALUE)
+        {
+            throw new IOException("Session store " + path + " larger than 2 GiB.");
+        }
+        // Mapped at its full size, the slots never written take no space
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        for(int i = 0; i < NUMBER_LOCKS; i++)
+        {
+            locks[i] = new Object();
+        }
+        System.out.println("Session store " + path + ": " + numberBuckets + " buckets of "
+            + slotsPerBucket + " slots of " + slotSize + " bytes.");
+    }
+
+    /**
+     * Get the bucket of a session.
+     * @param sessionId The session ID.
+     * @return The bucket number.
+     */
+    private int getBucket(SessionId sessionId)
+    {
+        long mixed = (sessionId.high() ^ Long.rotateLeft(sessionId.low(), 32)) * 0x9E3779B97F4A7C15L;
+        return (int)((mixed >>> 32) % numberBuckets);
+    }
+
+    /**
+     * Get the offset of the first slot of a bucket.
+     * @param bucket The bucket number.
+     * @return The offset in the file.
+     */
+    private int getBucketOffset(int bucket)
+    {
+        return FILE_HEADER_SIZE + bucket * slotsPerBucket * slotSize;
+    }
+
+    /**
+     * Lock a bucket against the other processes.
+     * @param bucket The bucket number, already locked against the threads of this process.
+     * @return The file lock, to release.
+     */
+    private FileLock lockBucket(int bucket)
+    {
+        try
+        {
+            return channel.lock(getBucketOffset(bucket), (long)slotsPerBucket * slotSize, false);
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Release the lock of a bucket.
+     * @param lock The file lock.
+     */
+    private static void unlock(FileLock lock)
+    {
+        try
+        {
+            lock.release();
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Find the slot of a session in its bucket.
+     * @param bucket The bucket number, locked.
+     * @param sessionId The session ID.
+     * @return The offset of the slot holding the session, or the complement of the offset of
+     * a free slot, or the complement of 0 if the bucket is full.
+     */
+    private int findSlot(int bucket, SessionId sessionId)
+    {
+        int free = 0;
+        int offset = getBucketOffset(bucket);
+        for(int slot = 0; slot < slotsPerBucket; slot++, offset += slotSize)
+        {
+            int length = table.getInt(offset + 32);
+            if(length > 0 && table.getLong(offset) == sessionId.high()
+                && table.getLong(offset + 8) == sessionId.low())
+            {
+                return offset;
+            }
+            if(length <= 0 && free == 0)
+            {
+                free = offset;
+            }
+        }
+        return ~free;
+    }
+
+    @Override
+    public Entry get(SessionId sessionId)
+    {
+        // The cached copy is current as long as its slot kept the same version
+        Cached cached = nearCache.get(sessionId);
+        if(cached != null && table.getLong(cached.offset() + 16) == cached.entry().version()
+            && table.getLong(cached.offset()) == sessionId.high()
+            && table.getLong(cached.offset() + 8) == sessionId.low())
+        {
+            numberHits.increment();
+            return new Entry(cached.entry().version(), cached.entry().lastActivity(),
+                cached.entry().snapshot().duplicate());
+        }
+        numberMisses.increment();
+        int bucket = getBucket(sessionId);
+        synchronized(locks[bucket % NUMBER_LOCKS])
+        {
+            FileLock lock = lockBucket(bucket);
+            try
+            {
+                int offset = findSlot(bucket, sessionId);
+                if(offset < 0)
+                {
+                    nearCache.remove(sessionId);
+                    return null;
+                }
+                ByteBuffer snapshot = ByteBuffer.allocate(table.getInt(offset + 32));
+                snapshot.put(table.slice(offset + SLOT_HEADER_SIZE, snapshot.capacity())).flip();
+                Entry entry = new Entry(table.getLong(offset + 16), table.getLong(offset + 24), snapshot);
+                cache(sessionId, entry, offset);
+                return new Entry(entry.version(), entry.lastActivity(), snapshot.duplicate());
+            }
+            finally
+            {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public long getLastActivity(SessionId sessionId)
+    {
+        int bucket = getBucket(sessionId);
+        synchronized(locks[bucket % NUMBER_LOCKS])
+        {
+            FileLock lock = lockBucket(bucket);
+            try
+            {
+                int offset = findSlot(bucket, sessionId);
+                return offset < 0 ? -1 : table.getLong(offset + 24);
+            }
+            finally
+            {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public long put(SessionId sessionId, long lastActivity, ByteBuffer snapshot)
+    {
+        return write(sessionId, -1, lastActivity, snapshot);
+    }
+
+    @Override
+    public long compareAndSet(SessionId sessionId, long expectedVersion, long lastActivity, ByteBuffer snapshot)
+    {
+        return write(sessionId, expectedVersion, lastActivity, snapshot);
+    }
+
+    /**
+     * Write a session in its slot.
+     * @param sessionId The session ID.
+     * @param expectedVersion The version to replace, 0 for a session not stored, -1 for any.
+     * @param lastActivity The last activity of the session, in milliseconds.
+     * @param snapshot The snapshot of the session, copied from its position to its limit.
+     * @return The new version, 0 if the stored version is another one, or -1 if the snapshot
+     * is too large for a slot or the bucket is full.
+     */
+    private long write(SessionId sessionId, long expectedVersion, long lastActivity, ByteBuffer snapshot)
+    {
+        int length = snapshot.remaining();
+        if(length <= 0 || length > slotSize - SLOT_HEADER_SIZE)
+        {
+            return -1;
+        }
+        int bucket = getBucket(sessionId);
+        synchronized(locks[bucket % NUMBER_LOCKS])
+        {
+            FileLock lock = lockBucket(bucket);
+            try
+            {
+                int offset = findSlot(bucket, sessionId);
+                long storedVersion = offset >= 0 ? table.getLong(offset + 16) : 0;
+                if(expectedVersion >= 0 && expectedVersion != storedVersion)
+                {
+                    numberConflicts.increment();
+                    return 0;
+                }
+                if(offset < 0)
+                {
+                    offset = ~offset;
+                    if(offset == 0)
+                    {
+                        return -1;
+                    }
+                }
+                // The version of a slot only grows, whichever session it holds, so a cached
+                // copy never matches a slot that was written since
+                long version = table.getLong(offset + 16) + 1;
+                table.put(offset + SLOT_HEADER_SIZE, snapshot, snapshot.position(), length);
+                table.putLong(offset, sessionId.high());
+                table.putLong(offset + 8, sessionId.low());
+                table.putLong(offset + 24, lastActivity);
+                table.putInt(offset + 32, length);
+                table.putLong(offset + 16, version);
+                // Read your writes without going back to the file
+                ByteBuffer copy = ByteBuffer.allocate(length);
+                copy.put(snapshot.duplicate()).flip();
+                cache(sessionId, new Entry(version, lastActivity, copy), offset);
+                return version;
+            }
+            finally
+            {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public boolean touch(SessionId sessionId, long lastActivity)
+    {
+        int bucket = getBucket(sessionId);
+        synchronized(locks[bucket % NUMBER_LOCKS])
+        {
+            FileLock lock = lockBucket(bucket);
+            try
+            {
+                int offset = findSlot(bucket, sessionId);
+                if(offset < 0)
+                {
+                    return false;
+                }
+                // The version is kept, the near-caches of the other nodes stay valid
+                table.putLong(offset + 24, Math.max(lastActivity, table.getLong(offset + 24)));
+                return true;
+            }
+            finally
+            {
+                unlock(lock);
+            }
+        }
+    }
+
+    @Override
+    public boolean expire(SessionId sessionId, long notAfter)
+    {
+        nearCache.remove(sessionId);
+        int bucket = getBucket(sessionId);
+        synchronized(locks[bucket % NUMBER_LOCKS])
+        {
+            FileLock lock = lockBucket(bucket);
+            try
+            {
+                int offset = findSlot(bucket, sessionId);
+                if(offset < 0 || table.getLong(offset + 24) > notAfter)
+                {
+                    return false;
+                }
+                table.putInt(offset + 32, REMOVED);
+                table.putLong(offset + 16, table.getLong(offset + 16) + 1);
+                return true;
+            }
+            finally
+            {
+                unlock(lock);
+            }
+        }
+    }
+
+    /**
+     * Keep a copy of a session, evicting another one if the near-cache is full.
+     * @param sessionId The session ID.
+     * @param entry The session.
+     * @param offset The offset of its slot.
+     */
+    private void cache(SessionId sessionId, Entry entry, int offset)
+    {
+        if(nearCache.size() >= NEAR_CACHE_SIZE && !nearCache.containsKey(sessionId))
+        {
+            Iterator<SessionId> victims = nearCache.keySet().iterator();
+            if(victims.hasNext())
+            {
+                victims.next();
+                victims.remove();
+            }
+        }
+        nearCache.put(sessionId, new Cached(entry, offset));
+    }
+
+    /**
+     * Visit the stored sessions, one bucket at a time.
+     * @param visitor The visitor, called with the bucket locked.
+     */
+    @Override
+    public void forEach(Visitor visitor)
+    {
+        for(int bucket = 0; bucket < numberBuckets; bucket++)
+        {
+            synchronized(locks[bucket % NUMBER_LOCKS])
+            {
+                FileLock lock = lockBucket(bucket);
+                try
+                {
+                    int offset = getBucketOffset(bucket);
+                    for(int slot = 0; slot < slotsPerBucket; slot++, offset += slotSize)
+                    {
+                        int length = table.getInt(offset + 32);
+                        if(length > 0)
+                        {
+                            visitor.visit(new SessionId(table.getLong(offset), table.getLong(offset + 8)),
+                                table.getLong(offset + 24), table.slice(offset + SLOT_HEADER_SIZE, length));
+                        }
+                    }
+                }
+                finally
+                {
+                    unlock(lock);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        int size = 0;
+        for(int offset = FILE_HEADER_SIZE; offset < table.capacity(); offset += slotSize)
+        {
+            if(table.getInt(offset + 32) > 0)
+            {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The file outlives the processes.
+     */
+    @Override
+    public boolean isPersistent()
+    {
+        return true;
+    }
+
+    @Override
+    public String getStatistics()
+    {
+        return "stored sessions: " + size() + ", near-cache hits: " + numberHits.sum()
+            + ", misses: " + numberMisses.sum() + ", conflicts: " + numberConflicts.sum();
+    }
+}
@@ -0,0 +1,106 @@
+public class Viewport
+{
+    public static final int DEFAULT_SIZE = 24;
+    // Largest window a client can subscribe to
+    public static final int MAX_SIZE = 128;
+    // Distance to the edge under which a move scrolls the viewport
+    private static final int SCROLL_MARGIN = 2;
+
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    // Set once the client chose its window with a VIEW command
+    private boolean subscribed = false;
+
+    /**
+     * Constructor for the Viewport class.
+     * @param x The x coordinate of the top left cell.
+     * @param y The y coordinate of the top left cell.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public Viewport(int x, int y, int width, int height)
+    {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Subscribe to a window chosen by the client.
+     * @param x The x coordinate of the top left cell.
+     * @param y The y coordinate of the top left cell.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @return True if the window is valid, false otherwise.
+     * @implNote Used for the VIEW command.
+     */
+    public boolean subscribe(int x, int y, int width, int height)
+    {
+        if(width < 1 || width > MAX_SIZE || height < 1 || height > MAX_SIZE)
+        {
+            return false;
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        subscribed = true;
+        return true;
+    }
+
+    /**
+     * Did the client choose its window?
+     * @return True if the client sent a VIEW command, false otherwise.
+     * @implNote Until then classic grids are sent whole.
+     */
+    public boolean isSubscribed()
+    {
+        return subscribed;
+    }
+
+    /**
+     * Center the viewport on a cell if it lies close to the edge.
+     * @param cellX The x coordinate of the cell.
+     * @param cellY The y coordinate of the cell.
+     * @implNote Used by the infinite mode so the player can explore by playing near the edges,
+     * a window chosen by the client never moves.
+     */
+    public void scrollTo(int cellX, int cellY)
+    {
+        if(subscribed)
+        {
+            return;
+        }
+        if(cellX < x + SCROLL_MARGIN || cellX >= x + height - SCROLL_MARGIN)
+        {
+            x = cellX - height / 2;
+        }
+        if(cellY < y + SCROLL_MARGIN || cellY >= y + width - SCROLL_MARGIN)
+        {
+            y = cellY - width / 2;
+        }
+    }
+
+    public int getX()
+    {
+        return x;
+    }
+
+    public int getY()
+    {
+        return y;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+}
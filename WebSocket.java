@@ -1,110 +1,210 @@
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 // Socket interface to send and receive text messages following the Websocket Data Frames
 public class WebSocket {
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+    // Largest message accepted from a client, the commands are a few bytes
+    private static final int MAX_MESSAGE_SIZE = 65536;
+
     private InputStream streamIn;
     private OutputStream streamOut;
+    private final byte[] frameHeader = new byte[10];
+    // Only used by the receiving thread, the message is read in place and reused by the next one
+    private final byte[] inputHeader = new byte[8];
+    private final byte[] maskKey = new byte[4];
+    private byte[] message = new byte[256];
+    private ByteBuffer messageView = ByteBuffer.wrap(message);
+    // Sequence of the last board sent, a board rendered before it is stale
+    private long boardSequence = 0;
 
     WebSocket(Socket socket) {
         try {
             this.streamIn = socket.getInputStream();
-            this.streamOut = socket.getOutputStream();
+            // Buffered so a frame header and its payload leave in a single write
+            this.streamOut = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE);
 
         } catch (IOException e) {
             System.out.println("Failed to create Worker:" + e);
         }
     }
 
-    // Perform several reads to read up to length bytes, returns the bytes read
-    private byte[] read(int length) throws IOException {
-        byte[] data = new byte[length];
+    // Perform several reads to read exactly length bytes into a buffer
+    private void readFully(byte[] data, int offset, int length) throws IOException {
         int totalBytesRead = 0;
         while (totalBytesRead < length) {
-            int bytesRead = streamIn.read(data, totalBytesRead, length - totalBytesRead);
+            int bytesRead = streamIn.read(data, offset + totalBytesRead, length - totalBytesRead);
             if (bytesRead == -1) {
                 throw new IOException("Data frame error: insufficient read");
             }
             totalBytesRead += bytesRead;
         }
-        return data;
     }
 
     // Receive a text message from a websocket
     String receive() throws IOException {
-        ByteArrayOutputStream messageBuffer = new ByteArrayOutputStream();
+        ByteBuffer received = receiveMessage();
+        return new String(received.array(), 0, received.limit(), StandardCharsets.UTF_8);
+    }
+
+    // Receive a text message from a websocket as UTF-8 bytes, without allocating,
+    // the buffer returned is only valid until the next call
+    ByteBuffer receiveMessage() throws IOException {
+        int messageLength = 0;
         boolean isFinal = false;
 
         while (!isFinal) {
 
             // Header
-            byte[] frameHeader = read(2);
-            isFinal = (frameHeader[0] & 0b10000000) != 0;
+            readFully(inputHeader, 0, 2);
+            isFinal = (inputHeader[0] & 0b10000000) != 0;
 
             // RSV1 RSV2 RSV3 are ignored
 
-            int opcode = frameHeader[0] & 0b00001111;
+            int opcode = inputHeader[0] & 0b00001111;
             if (opcode != 1) {
                 throw new IOException("Unsupported opcode, only text data frame");
             }
 
-            boolean isMasked = (frameHeader[1] & 0b10000000) != 0;
+            boolean isMasked = (inputHeader[1] & 0b10000000) != 0;
 
             // Payload length
-            int payloadLength = frameHeader[1] & 0b01111111;
+            long payloadLength = inputHeader[1] & 0b01111111;
 
-            // Extended length
+            // Extended length, unsigned
             if (payloadLength == 126) {
-                byte[] extendedLength = read(2);
-                payloadLength = ByteBuffer.wrap(extendedLength).getShort();
+                readFully(inputHeader, 0, 2);
+                payloadLength = ((inputHeader[0] & 0xFF) << 8) | (inputHeader[1] & 0xFF);
             } else if (payloadLength == 127) {
-                byte[] extendedLength = read(8);
-                payloadLength = (int) ByteBuffer.wrap(extendedLength).getLong();
+                readFully(inputHeader, 0, 8);
+                payloadLength = ByteBuffer.wrap(inputHeader).getLong();
+            }
+            if (payloadLength < 0 || messageLength + payloadLength > MAX_MESSAGE_SIZE) {
+                throw new IOException("Message too large");
             }
+            int length = (int) payloadLength;
 
             // Mask key
-            byte[] maskKey = new byte[4];
             if (isMasked) {
-                maskKey = read(4);
+                readFully(maskKey, 0, 4);
             }
 
-            // Payload Data
-            byte[] payloadData = read(payloadLength);
+            // Payload Data, appended to the message
+            if (messageLength + length > message.length) {
+                message = Arrays.copyOf(message, Math.max(message.length * 2, messageLength + length));
+                messageView = ByteBuffer.wrap(message);
+            }
+            readFully(message, messageLength, length);
 
             // Unmask if needed
             if (isMasked) {
-                for (int i = 0; i < payloadLength; i++) {
-                    payloadData[i] ^= maskKey[i % 4];
+                for (int i = 0; i < length; i++) {
+                    message[messageLength + i] ^= maskKey[i & 3];
                 }
             }
-            messageBuffer.write(payloadData);
+            messageLength += length;
         }
-        return messageBuffer.toString("UTF-8");
+        messageView.clear().limit(messageLength);
+        return messageView;
     }
 
     // Send a text message from a websocket
     void send(String message) throws IOException {
-        byte[] messageBytes = message.getBytes("UTF-8");
-        int messageLength = messageBytes.length;
+        send(ByteBuffer.wrap(message.getBytes("UTF-8")));
+    }
+
+    // Send the remaining bytes of a buffer as a text message, without copying the payload,
+    // synchronized as the other connections of the session send updates too
+    synchronized void send(ByteBuffer message) throws IOException {
+        int messageLength = message.remaining();
+        int headerLength = writeFrameHeader(frameHeader, messageLength);
+
+        streamOut.write(frameHeader, 0, headerLength);
+        if (message.hasArray()) {
+            streamOut.write(message.array(), message.arrayOffset() + message.position(), messageLength);
+        } else {
+            byte[] payload = new byte[messageLength];
+            message.duplicate().get(payload);
+            streamOut.write(payload);
+        }
+        streamOut.flush();
+    }
+
+    // Send a close frame with a status code, e.g. 1008 for a policy violation
+    synchronized void sendClose(int statusCode) throws IOException {
+        streamOut.write(new byte[] { (byte) 0x88, 2, (byte) (statusCode >>> 8), (byte) statusCode });
+        streamOut.flush();
+    }
+
+    // Send a board, unless a board rendered after it was already sent to this connection
+    synchronized void sendBoard(ByteBuffer board, long sequence) throws IOException {
+        if (sequence > boardSequence) {
+            boardSequence = sequence;
+            send(board);
+        }
+    }
+
+    // Send a board framed beforehand, possibly after the session was unlocked, unless a board
+    // rendered after it was already sent to this connection
+    synchronized void sendBoardFrame(byte[] frame, long sequence) throws IOException {
+        if (sequence > boardSequence) {
+            boardSequence = sequence;
+            sendFrame(frame);
+        }
+    }
+
+    // Send a message framed beforehand by frame(), shared by all the connections
+    synchronized void sendFrame(byte[] frame) throws IOException {
+        streamOut.write(frame);
+        streamOut.flush();
+    }
 
-        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    // Frame the remaining bytes of a buffer as a text message once, so it can be written as is
+    // to any number of sockets
+    static byte[] frame(ByteBuffer message) {
+        int messageLength = message.remaining();
+        byte[] header = new byte[10];
+        int headerLength = writeFrameHeader(header, messageLength);
+        byte[] frame = new byte[headerLength + messageLength];
+        System.arraycopy(header, 0, frame, 0, headerLength);
+        message.duplicate().get(frame, headerLength, messageLength);
+        return frame;
+    }
+
+    // Largest frame header, the room to leave before a payload to frame it in place
+    static final int MAX_FRAME_HEADER = 10;
+
+    // Write the header of a text frame just before a payload, returns the start of the frame
+    static int frameInPlace(byte[] buffer, int payloadOffset, int payloadLength) {
+        byte[] header = new byte[MAX_FRAME_HEADER];
+        int headerLength = writeFrameHeader(header, payloadLength);
+        System.arraycopy(header, 0, buffer, payloadOffset - headerLength, headerLength);
+        return payloadOffset - headerLength;
+    }
 
-        frame.write(0x81); //Final frame and text opcode
+    // Write the header of a final text frame of the given payload length, returns the header length
+    private static int writeFrameHeader(byte[] header, int messageLength) {
+        int headerLength = 0;
+
+        header[headerLength++] = (byte) 0x81; //Final frame and text opcode
 
         // payload length
         if (messageLength <= 125) {
-            frame.write(messageLength);
+            header[headerLength++] = (byte) messageLength;
         } else if (messageLength <= 65535) {
-            frame.write(126);
-            frame.write(ByteBuffer.allocate(2).putShort((short) messageLength).array());
+            header[headerLength++] = 126;
+            header[headerLength++] = (byte) (messageLength >>> 8);
+            header[headerLength++] = (byte) messageLength;
         } else {
             // 2^64 - 1 is never reached as int max value is 2^32 - 1
-            frame.write(127);
-            frame.write(ByteBuffer.allocate(8).putLong(messageLength).array());
+            header[headerLength++] = 127;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                header[headerLength++] = (byte) ((long) messageLength >>> shift);
+            }
         }
-
-        frame.write(messageBytes);
-        streamOut.write(frame.toByteArray());
+        return headerLength;
     }
 }
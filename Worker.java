@@ -6,8 +6,8 @@ class Worker extends Thread
 {
     Socket clientSocket;
     String key;
-    String session;
-    Worker(Socket clientSocket, String key, String session)
+    SessionId session;
+    Worker(Socket clientSocket, String key, SessionId session)
     {
         this.clientSocket = clientSocket;
         this.key = key;